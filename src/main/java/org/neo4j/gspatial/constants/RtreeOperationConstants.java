@@ -1,8 +1,8 @@
 package org.neo4j.gspatial.constants;
 
-import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Transaction;
 import org.neo4j.gspatial.index.rtree.RTreeIndex;
+import org.neo4j.gspatial.index.rtree.RTreeIndex.NodeWithEnvelope;
 import org.neo4j.gspatial.index.rtree.TriFunction;
 
 import java.util.List;
@@ -11,24 +11,24 @@ public final class RtreeOperationConstants {
 
     public enum RtreeOperation {
         INSERT((index, tx, args) -> {
-            index.add(tx, args);
+            index.addAll(tx, args);
             return String.format("build %d nodes", args.size());
         }),
         DELETE((index, tx, args) -> {
-            for (Node node : args) {
-                String geomNodeIdx = node.getProperty("idx").toString();
+            for (NodeWithEnvelope entry : args) {
+                String geomNodeIdx = entry.node.getProperty("idx").toString();
                 index.remove(tx, geomNodeIdx, false, true);
             }
             return String.format("Deleted %d nodes", args.size());
         });
 
-        private final TriFunction<RTreeIndex, Transaction, List<Node>, Object> executor;
+        private final TriFunction<RTreeIndex, Transaction, List<NodeWithEnvelope>, Object> executor;
 
-        RtreeOperation(TriFunction<RTreeIndex, Transaction, List<Node>, Object> executor) {
+        RtreeOperation(TriFunction<RTreeIndex, Transaction, List<NodeWithEnvelope>, Object> executor) {
             this.executor = executor;
         }
 
-        public Object execute(RTreeIndex index, Transaction tx, List<Node> args) {
+        public Object execute(RTreeIndex index, Transaction tx, List<NodeWithEnvelope> args) {
             return executor.apply(index, tx, args);
         }
     }
@@ -4,9 +4,14 @@ import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Transaction;
 import org.neo4j.gspatial.index.rtree.HexaFunction;
 import org.neo4j.gspatial.index.rtree.ProgressLoggingListener;
+import org.neo4j.gspatial.index.rtree.query.ApproximateRange;
+import org.neo4j.gspatial.index.rtree.query.BatchKnn;
+import org.neo4j.gspatial.index.rtree.query.BatchRange;
 import org.neo4j.gspatial.index.rtree.query.Join;
 import org.neo4j.gspatial.index.rtree.query.Knn;
+import org.neo4j.gspatial.index.rtree.query.NetworkKnn;
 import org.neo4j.gspatial.index.rtree.query.Range;
+import org.neo4j.gspatial.index.rtree.query.Rknn;
 import org.neo4j.logging.Log;
 
 import java.util.List;
@@ -16,7 +21,16 @@ public final class RtreeQueryConstants {
     public enum RtreeQuery {
         JOIN((tx, layers, args, cypherQuery, log, progressListener) -> new Join(tx, layers, args, log, progressListener).query()),
         RANGE((tx, layers, args, cypherQuery, log, progressListener) -> new Range(tx, layers, args, cypherQuery, progressListener).query()),
-        KNN((tx, layers, args, cypherQuery, log, progressListener) -> new Knn(tx, layers, args, progressListener).query());
+        RANGE_COUNT((tx, layers, args, cypherQuery, log, progressListener) -> new Range(tx, layers, args, cypherQuery, progressListener).count()),
+        RANGE_PAGE((tx, layers, args, cypherQuery, log, progressListener) -> new Range(tx, layers, (List<Object>) args.get(2), cypherQuery, progressListener)
+                .page(((Number) args.get(0)).intValue(), (String) args.get(1))),
+        RANGE_BATCH((tx, layers, args, cypherQuery, log, progressListener) -> new BatchRange(tx, layers, args, cypherQuery, progressListener).query()),
+        RANGE_APPROXIMATE((tx, layers, args, cypherQuery, log, progressListener) -> new ApproximateRange(tx, layers, args, progressListener).query()),
+        RANGE_EXISTS((tx, layers, args, cypherQuery, log, progressListener) -> new Range(tx, layers, args, cypherQuery, progressListener).exists()),
+        KNN((tx, layers, args, cypherQuery, log, progressListener) -> new Knn(tx, layers, args, cypherQuery, progressListener).query()),
+        KNN_BATCH((tx, layers, args, cypherQuery, log, progressListener) -> new BatchKnn(null, tx, layers, args, progressListener).query()),
+        KNN_NETWORK((tx, layers, args, cypherQuery, log, progressListener) -> new NetworkKnn(tx, layers, args, progressListener).query()),
+        RKNN((tx, layers, args, cypherQuery, log, progressListener) -> new Rknn(tx, layers, args, progressListener).query());
 
         private final HexaFunction<Transaction, List<Node>, List<Object>, String, Log, ProgressLoggingListener, Stream<?>> executor;
 
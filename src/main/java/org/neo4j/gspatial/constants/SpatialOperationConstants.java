@@ -2,6 +2,7 @@ package org.neo4j.gspatial.constants;
 
 import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
+import org.neo4j.gspatial.utils.GeodesicUtility;
 
 import java.util.Arrays;
 import java.util.List;
@@ -41,6 +42,12 @@ public final class SpatialOperationConstants {
         }, 2),
         ENVELOPE(args -> ((Geometry) args.get(0)).getEnvelope(), 1),
         EQUALS(args -> ((Geometry) args.get(0)).equals((Geometry) args.get(1)), 2),
+        GEODESIC_DISTANCE(args -> {
+            if (SpatialConstants.SRID.getIntValue() != 4326) {
+                throw new IllegalArgumentException("Geodesic distances require SRID 4326");
+            }
+            return GeodesicUtility.distance((Geometry) args.get(0), (Geometry) args.get(1));
+        }, 2),
         INTERSECTION(args -> ((Geometry) args.get(0)).intersection((Geometry) args.get(1)), 2),
         INTERSECTS(args -> ((Geometry) args.get(0)).intersects((Geometry) args.get(1)), 2),
         LENGTH(args -> ((Geometry) args.get(0)).getLength(), 1),
@@ -82,7 +89,7 @@ public final class SpatialOperationConstants {
     }
 
     public static boolean isDualParameterOperation(String operationName) {
-        return Arrays.asList("DISTANCE").contains(operationName.toUpperCase());
+        return Arrays.asList("DISTANCE", "GEODESIC_DISTANCE").contains(operationName.toUpperCase());
     }
 
     public static boolean isSingOperation(String operationName) {
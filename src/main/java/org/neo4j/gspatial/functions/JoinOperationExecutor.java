@@ -1,14 +1,11 @@
 package org.neo4j.gspatial.functions;
 
 import org.locationtech.jts.geom.Geometry;
-import org.neo4j.gspatial.index.rtree.query.QueryUtils.NodeWithGeometry;
-import org.neo4j.gspatial.utils.RtreeUtility.JoinOutput;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
 import org.neo4j.logging.Log;
 
 import java.util.Arrays;
-import java.util.List;
 import java.util.function.BiFunction;
-import java.util.stream.Stream;
 
 public class JoinOperationExecutor {
     private final Log log;
@@ -24,36 +21,61 @@ public class JoinOperationExecutor {
     }
 
     public enum JoinOperation {
-        CONTAINS(Geometry::contains),
-        COVERS(Geometry::covers),
-        COVERED_BY(Geometry::coveredBy),
-        CROSSES(Geometry::crosses),
-        DISJOINT(Geometry::disjoint),
-        EQUALS(Geometry::equals),
-        INTERSECTS(Geometry::intersects),
-        OVERLAPS(Geometry::overlaps),
-        TOUCHES(Geometry::touches),
-        WITHIN(Geometry::within);
+        CONTAINS(Geometry::contains, PreparedGeometry::contains),
+        COVERS(Geometry::covers, PreparedGeometry::covers),
+        COVERED_BY(Geometry::coveredBy, PreparedGeometry::coveredBy),
+        CROSSES(Geometry::crosses, PreparedGeometry::crosses),
+        DISJOINT(Geometry::disjoint, PreparedGeometry::disjoint),
+        EQUALS(Geometry::equals, (prepared, geom) -> prepared.getGeometry().equals(geom)),
+        INTERSECTS(Geometry::intersects, PreparedGeometry::intersects),
+        OVERLAPS(Geometry::overlaps, PreparedGeometry::overlaps),
+        TOUCHES(Geometry::touches, PreparedGeometry::touches),
+        WITHIN(Geometry::within, PreparedGeometry::within);
 
         private final BiFunction<Geometry, Geometry, Boolean> executor;
+        private final BiFunction<PreparedGeometry, Geometry, Boolean> preparedExecutor;
 
-        JoinOperation(BiFunction<Geometry, Geometry, Boolean> executor) {
+        JoinOperation(BiFunction<Geometry, Geometry, Boolean> executor, BiFunction<PreparedGeometry, Geometry, Boolean> preparedExecutor) {
             this.executor = executor;
+            this.preparedExecutor = preparedExecutor;
         }
 
         public Boolean execute(Geometry geom1, Geometry geom2) {
             return executor.apply(geom1, geom2);
         }
 
+        public Boolean execute(PreparedGeometry geom1, Geometry geom2) {
+            return preparedExecutor.apply(geom1, geom2);
+        }
+
+        /**
+         * The operation with swapped arguments, i.e. {@code a op b == b op.converse() a}.
+         */
+        public JoinOperation converse() {
+            return switch (this) {
+                case CONTAINS -> WITHIN;
+                case WITHIN -> CONTAINS;
+                case COVERS -> COVERED_BY;
+                case COVERED_BY -> COVERS;
+                default -> this;
+            };
+        }
+
         public static boolean isTopologyOperation(String operationName) {
             return Arrays.stream(JoinOperation.values())
                     .anyMatch(op -> op.name().equals(operationName.toUpperCase()));
         }
     }
 
-    public Stream<JoinOutput> executeOperation(List<NodeWithGeometry.Pair> pairs) {
-        return pairs.parallelStream()
-                .filter(pair -> operation.execute(pair.nwg1.geometry, pair.nwg2.geometry))
-                .map(pair -> new JoinOutput(pair.nwg1.node, pair.nwg2.node));
+    public boolean matches(Geometry geom1, Geometry geom2) {
+        return operation.execute(geom1, geom2);
+    }
+
+    public boolean matches(PreparedGeometry geom1, Geometry geom2) {
+        return operation.execute(geom1, geom2);
+    }
+
+    public boolean matches(Geometry geom1, PreparedGeometry geom2) {
+        return operation.converse().execute(geom2, geom1);
     }
 }
@@ -6,6 +6,7 @@ import org.neo4j.graphdb.Transaction;
 import org.neo4j.gspatial.constants.RtreeOperationConstants.RtreeOperation;
 import org.neo4j.gspatial.index.rtree.EnvelopeDecoderFromJtsGeometry;
 import org.neo4j.gspatial.index.rtree.RTreeIndex;
+import org.neo4j.gspatial.index.rtree.RTreeIndex.NodeWithEnvelope;
 import org.neo4j.gspatial.index.rtree.RTreeMonitor;
 import org.neo4j.gspatial.utils.RtreeUtility;
 import org.neo4j.logging.Log;
@@ -19,6 +20,7 @@ public class RtreeOperationExecutor {
     private final RTreeIndex index;
     private final String RtreeLabel;
     private final Boolean disconnect;
+    private final Node layerNode;
 
     public RtreeOperationExecutor(Log log, Transaction tx, String spatialSetLabel, Boolean disconnect) {
         this.log = log;
@@ -30,22 +32,24 @@ public class RtreeOperationExecutor {
             System.out.printf("Creating %s RTree layer node%n", spatialSetLabel);
             layerNode = tx.createNode(Label.label(RtreeLabel));
         }
+        this.layerNode = layerNode;
         System.out.printf("Use %s RTree index%n", spatialSetLabel);
         this.index = new RTreeIndex(tx, layerNode, new EnvelopeDecoderFromJtsGeometry("geometry"), 10, new RTreeMonitor(), RtreeLabel);
     }
 
     public Stream<RtreeUtility.Output> executeOperation(String operationName, List<Object> rawArgs) {
         log.info(String.format("Running gspatial.%s with arguments: %s", operationName, rawArgs));
-        List<Node> checkedArgs = RtreeUtility.checkArgs(tx, rawArgs);
+        RtreeOperation operation = RtreeOperation.valueOf(operationName.toUpperCase());
+        List<NodeWithEnvelope> checkedArgs = RtreeUtility.checkArgs(tx, rawArgs, operation == RtreeOperation.INSERT);
 
         if (disconnect) {
             log.info("Disconnect flag is true, copying nodes to new layer.");
             checkedArgs = RtreeUtility.copyNodes(tx, checkedArgs, RtreeLabel);
         }
 
-        RtreeOperation operation = RtreeOperation.valueOf(operationName.toUpperCase());
         Object result = operation.execute(index, tx, checkedArgs);
         index.saveCount(tx);
+        RtreeQueryCache.bumpVersion(layerNode);
         return Stream.of(new RtreeUtility.Output(result));
     }
 }
@@ -0,0 +1,222 @@
+package org.neo4j.gspatial.functions;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.gspatial.constants.RtreeQueryConstants.RtreeQuery;
+import org.neo4j.gspatial.constants.SpatialConstants;
+import org.neo4j.gspatial.index.rtree.query.CypherFilter;
+import org.neo4j.gspatial.utils.RtreeUtility.CacheStatsOutput;
+import org.neo4j.gspatial.utils.RtreeUtility.KnnOutput;
+import org.neo4j.gspatial.utils.RtreeUtility.RangeOutput;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * LRU cache of range and kNN query results, disabled until turned on with {@link #setEnabled}.
+ * Entries are keyed by query type, layers with their index versions and normalized arguments.
+ * Every index modification gives the layer a new version, so entries of a modified layer are never hit again
+ * and simply age out. Queries with a Cypher filter are never cached, since the data the filter reads is not
+ * tracked by the versions.
+ * <p>
+ * Results are kept as element ids and bound to the caller's transaction on a hit; an entry holding a node deleted
+ * in the meantime is evicted and the query runs again. A result is only stored once its stream has been read to
+ * the end, so a consumer stopping early (LIMIT) keeps the traversal lazy.
+ * The cache is bounded by the total number of cached rows.
+ */
+public class RtreeQueryCache {
+    public static final String LAYER_PROP_VERSION = "indexVersion";
+    private static final int MAX_TOTAL_ROWS = 1_000_000;
+    private static final int MAX_ENTRY_ROWS = 100_000;
+    private static final RtreeQueryCache INSTANCE = new RtreeQueryCache(MAX_TOTAL_ROWS, MAX_ENTRY_ROWS);
+    // Versions are unique within the JVM, so a rolled back modification never reuses a version of a committed one.
+    private static final AtomicLong VERSION_SEQUENCE = new AtomicLong(System.currentTimeMillis());
+
+    private final int maxTotalRows;
+    private final int maxEntryRows;
+    private final LinkedHashMap<String, List<Object>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalRows = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private volatile boolean enabled = false;
+
+    RtreeQueryCache(int maxTotalRows, int maxEntryRows) {
+        this.maxTotalRows = maxTotalRows;
+        this.maxEntryRows = maxEntryRows;
+    }
+
+    public static RtreeQueryCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Marks the index of the layer as modified.
+     */
+    public static void bumpVersion(Node layer) {
+        layer.setProperty(LAYER_PROP_VERSION, VERSION_SEQUENCE.incrementAndGet());
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Turns the cache on or off; turning it off drops every entry.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            clear();
+        }
+    }
+
+    public boolean isCacheable(RtreeQuery query, String cypherQuery) {
+        if (!enabled || !CypherFilter.isEmpty(cypherQuery)) {
+            return false;
+        }
+        return switch (query) {
+            case RANGE, RANGE_COUNT, RANGE_EXISTS, KNN -> true;
+            default -> false;
+        };
+    }
+
+    public static String key(RtreeQuery query, List<Node> layers, List<Object> args) {
+        StringBuilder key = new StringBuilder(query.name());
+        for (Node layer : layers) {
+            key.append('|').append(layer.getElementId()).append('@').append(layer.getProperty(LAYER_PROP_VERSION, 0L));
+        }
+        return key.append('|').append(normalize(args)).toString();
+    }
+
+    private static Object normalize(Object arg) {
+        if (arg instanceof Node node) {
+            Object geometry = node.getProperty(SpatialConstants.GEOMETRYNAME.getValue(), null);
+            return "node:" + node.getElementId() + "#" + Arrays.deepHashCode(new Object[]{geometry});
+        } else if (arg instanceof List<?> list) {
+            return list.stream().map(RtreeQueryCache::normalize).toList();
+        } else if (arg instanceof String string) {
+            return string.strip().toUpperCase();
+        } else if (arg instanceof Double || arg instanceof Float) {
+            return ((Number) arg).doubleValue();
+        }
+        return arg;
+    }
+
+    /**
+     * Returns the cached result bound to the transaction, or null on a miss.
+     * An entry referring to a node that no longer exists is evicted and reported as a miss.
+     */
+    public Stream<?> get(Transaction tx, RtreeQuery query, String key) {
+        List<Object> rows;
+        synchronized (this) {
+            rows = entries.get(key);
+        }
+        List<Object> attached = null;
+        if (rows != null) {
+            try {
+                attached = new ArrayList<>(rows.size());
+                for (Object row : rows) {
+                    attached.add(attach(tx, query, row));
+                }
+            } catch (NotFoundException e) {
+                attached = null;
+                evict(key, rows);
+            }
+        }
+        synchronized (this) {
+            if (attached == null) {
+                misses++;
+                return null;
+            }
+            hits++;
+        }
+        return attached.stream();
+    }
+
+    /**
+     * Passes the results through, storing them under the key once they have been read to the end.
+     */
+    public Stream<?> recording(RtreeQuery query, String key, Stream<?> results) {
+        Iterator<?> source = results.iterator();
+        Iterator<Object> recorder = new Iterator<>() {
+            private List<Object> rows = new ArrayList<>();
+
+            @Override
+            public boolean hasNext() {
+                boolean hasNext = source.hasNext();
+                if (!hasNext && rows != null) {
+                    put(key, rows);
+                    rows = null;
+                }
+                return hasNext;
+            }
+
+            @Override
+            public Object next() {
+                Object row = source.next();
+                if (rows != null) {
+                    rows.add(detach(query, row));
+                    if (rows.size() > maxEntryRows) {
+                        rows = null;
+                    }
+                }
+                return row;
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(recorder, Spliterator.ORDERED), false)
+                .onClose(results::close);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        totalRows = 0;
+    }
+
+    public synchronized CacheStatsOutput stats() {
+        return new CacheStatsOutput(enabled, hits, misses, evictions, entries.size(), totalRows);
+    }
+
+    private synchronized void evict(String key, List<Object> rows) {
+        if (entries.remove(key, rows)) {
+            totalRows -= rows.size();
+            evictions++;
+        }
+    }
+
+    private synchronized void put(String key, List<Object> rows) {
+        List<Object> previous = entries.put(key, rows);
+        if (previous != null) {
+            totalRows -= previous.size();
+        }
+        totalRows += rows.size();
+        Iterator<List<Object>> eldest = entries.values().iterator();
+        while (totalRows > maxTotalRows && eldest.hasNext()) {
+            totalRows -= eldest.next().size();
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    private static Object detach(RtreeQuery query, Object row) {
+        return switch (query) {
+            case RANGE -> ((RangeOutput) row).node.getElementId();
+            case KNN -> Map.entry(((KnnOutput) row).node.getElementId(), ((KnnOutput) row).distance);
+            default -> row;
+        };
+    }
+
+    private static Object attach(Transaction tx, RtreeQuery query, Object row) {
+        return switch (query) {
+            case RANGE -> new RangeOutput(tx.getNodeByElementId((String) row));
+            case KNN -> {
+                Map.Entry<String, Double> entry = (Map.Entry<String, Double>) row;
+                yield new KnnOutput(tx.getNodeByElementId(entry.getKey()), entry.getValue());
+            }
+            default -> row;
+        };
+    }
+}
@@ -1,9 +1,14 @@
 package org.neo4j.gspatial.functions;
 
+import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Transaction;
 import org.neo4j.gspatial.constants.RtreeQueryConstants;
 import org.neo4j.gspatial.index.rtree.ProgressLoggingListener;
+import org.neo4j.gspatial.index.rtree.query.BatchKnn;
+import org.neo4j.gspatial.index.rtree.query.Join;
+import org.neo4j.gspatial.index.rtree.query.Knn;
+import org.neo4j.gspatial.index.rtree.query.ParallelLayers;
 import org.neo4j.gspatial.utils.RtreeUtility;
 import org.neo4j.logging.Log;
 
@@ -13,12 +18,22 @@ import java.util.stream.Stream;
 
 public class RtreeQueryExecutor {
     private final Transaction tx;
+    private final GraphDatabaseService db;
     private final Log log;
     private final List<Node> layers = new LinkedList<>();
     private final String cypherQuery;
 
     public RtreeQueryExecutor(Log log, Transaction tx, List<String> spatialSetLabels, String cypherQuery, Boolean disconnect) {
+        this(log, null, tx, spatialSetLabels, cypherQuery, disconnect);
+    }
+
+    /**
+     * With a database service, range and kNN queries over several layers traverse the layers concurrently,
+     * and joins traverse both indexes with parallel tasks.
+     */
+    public RtreeQueryExecutor(Log log, GraphDatabaseService db, Transaction tx, List<String> spatialSetLabels, String cypherQuery, Boolean disconnect) {
         this.tx = tx;
+        this.db = db;
         this.log = log;
         this.cypherQuery = cypherQuery;
         spatialSetLabels.forEach(label -> {
@@ -30,19 +45,63 @@ public class RtreeQueryExecutor {
     public Stream<?> executeOperation(String queryType, List<Object> args) {
 //        ProgressLoggingListener progressListener = new ProgressLoggingListener(queryType, log, Level.INFO, RtreeUtility.getMetas(layers));
         log.info(String.format("Running gspatial.%s with arguments: %s", queryType, args));
+        RtreeQueryConstants.RtreeQuery query;
         try {
-            RtreeQueryConstants.RtreeQuery query = RtreeQueryConstants.RtreeQuery.valueOf(queryType.toUpperCase());
-            ProgressLoggingListener progressListener = new ProgressLoggingListener(queryType, System.out, RtreeUtility.getMetas(layers, query));
-            progressListener.setTimeWait(1);
-            progressListener.begin(6);
-            Stream<?> results = query.execute(tx, layers, args, cypherQuery, log, progressListener);
-            progressListener.worked(1);
-            progressListener.done();
-            return results;
-
+            query = RtreeQueryConstants.RtreeQuery.valueOf(queryType.toUpperCase());
         } catch (IllegalArgumentException e) {
             log.error("Invalid query type provided: " + queryType, e);
-            return null;
+            throw e;
+        }
+        ProgressLoggingListener progressListener = new ProgressLoggingListener(queryType, System.out, RtreeUtility.getMetas(layers, query));
+        progressListener.setTimeWait(1);
+        progressListener.begin(6);
+        Stream<?> results;
+        RtreeQueryCache cache = RtreeQueryCache.getInstance();
+        if (cache.isCacheable(query, cypherQuery)) {
+            String key = RtreeQueryCache.key(query, layers, args);
+            Stream<?> cached = cache.get(tx, query, key);
+            if (cached != null) {
+                progressListener.done();
+                return cached;
+            }
+            results = cache.recording(query, key, execute(query, args, progressListener));
+        } else {
+            results = execute(query, args, progressListener);
+        }
+        progressListener.worked(1);
+        progressListener.done();
+        return results;
+    }
+
+    /**
+     * Worker transactions do not see the caller's pending changes, so a caller that has written anything runs its
+     * query serially in its own transaction.
+     */
+    private Stream<?> execute(RtreeQueryConstants.RtreeQuery query, List<Object> args, ProgressLoggingListener progressListener) {
+        GraphDatabaseService workers = db == null || ParallelLayers.hasPendingChanges(tx) ? null : db;
+        if (workers != null && query == RtreeQueryConstants.RtreeQuery.KNN_BATCH) {
+            return new BatchKnn(workers, tx, layers, args, progressListener).query();
+        }
+        if (workers != null && query == RtreeQueryConstants.RtreeQuery.JOIN) {
+            return new Join(workers, tx, layers, args, log, progressListener).query();
+        }
+        if (workers == null || layers.size() < 2) {
+            return query.execute(tx, layers, args, cypherQuery, log, progressListener);
         }
+        ParallelLayers parallelLayers = new ParallelLayers(workers, tx, layers);
+        return switch (query) {
+            case RANGE -> {
+                List<Object> workerArgs = ParallelLayers.detach(args);
+                yield parallelLayers.range((workerTx, layer) -> query.execute(workerTx, layer, workerArgs, cypherQuery, log, progressListener));
+            }
+            case KNN -> {
+                if (Knn.decodeK(args) == Knn.UNBOUNDED) {
+                    yield query.execute(tx, layers, args, cypherQuery, log, progressListener);
+                }
+                List<Object> workerArgs = ParallelLayers.detach(args);
+                yield parallelLayers.knn(Knn.decodeK(args), (workerTx, layer) -> query.execute(workerTx, layer, workerArgs, cypherQuery, log, progressListener));
+            }
+            default -> query.execute(tx, layers, args, cypherQuery, log, progressListener);
+        };
     }
 }
@@ -24,7 +24,10 @@ public class EnvelopeDecoderFromJtsGeometry implements EnvelopeDecoder {
 
     public Envelope bufferEnvelope(Entity container, double distance) {
         Object propValue = container.getProperty(propertyName);
-        Geometry geometry = GeometryUtility.parseGeometry((String) propValue);
+        return bufferEnvelope(GeometryUtility.parseGeometry((String) propValue), distance);
+    }
+
+    public Envelope bufferEnvelope(Geometry geometry, double distance) {
         Geometry buffer = geometry.buffer(distance);
         return new Envelope(buffer.getEnvelopeInternal());
     }
@@ -6,6 +6,7 @@ import org.neo4j.logging.Log;
 import java.io.PrintStream;
 import java.util.Locale;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This listener logs percentage progress to the specified PrintStream or Logger based on a timer,
@@ -23,8 +24,9 @@ public class ProgressLoggingListener implements Listener {
     private long startTime;
     private int totalGeometryCombination;
     private int totalIndexCombination;
-    private int visitedIndexCount = 0;
-    private int candidateGeometryCount = 0;
+    // Updated concurrently by the parallel join tasks
+    private final AtomicInteger visitedIndexCount = new AtomicInteger();
+    private final AtomicInteger candidateGeometryCount = new AtomicInteger();
 
     public interface ProgressLog {
         void log(String line);
@@ -84,8 +86,8 @@ public class ProgressLoggingListener implements Listener {
         long elapsedTime = currentTime - startTime;
         String elapsedTimeStr = formatDuration(elapsedTime);
         logNoMoreThanOnceASecond("Running (" + elapsedTimeStr + ")" +
-                ", Index Count: " + visitedIndexCount + "/" + totalIndexCombination
-                + ", Geometry Count: " + candidateGeometryCount + "/" + totalGeometryCombination
+                ", Index Count: " + visitedIndexCount.get() + "/" + totalIndexCombination
+                + ", Geometry Count: " + candidateGeometryCount.get() + "/" + totalGeometryCombination
                 + ", Message: " + message);
     }
 
@@ -102,8 +104,8 @@ public class ProgressLoggingListener implements Listener {
         long duration = endTime - startTime;
         String durationStr = formatDuration(duration);
         logNoMoreThanOnceASecond("Completed in " + durationStr +
-                ", Index Count: " + visitedIndexCount + "/" + totalIndexCombination
-                + ", Geometry Count: " + candidateGeometryCount + "/" + totalGeometryCombination);
+                ", Index Count: " + visitedIndexCount.get() + "/" + totalIndexCombination
+                + ", Geometry Count: " + candidateGeometryCount.get() + "/" + totalGeometryCombination);
     }
 
     private String formatDuration(long duration) {
@@ -135,10 +137,10 @@ public class ProgressLoggingListener implements Listener {
     }
 
     public void updateCandidateGeometryCount(int count) {
-        this.candidateGeometryCount += count;
+        this.candidateGeometryCount.addAndGet(count);
     }
 
     public void updateVisitedIndexCount(int count) {
-        this.visitedIndexCount += count;
+        this.visitedIndexCount.addAndGet(count);
     }
 }
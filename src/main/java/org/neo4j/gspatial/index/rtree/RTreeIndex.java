@@ -34,6 +34,7 @@ public class RTreeIndex implements SpatialIndexWriter, Configurable {
     private TreeMonitor monitor;
     private final String LayerNodeId;
     private EnvelopeDecoder envelopeDecoder;
+    private final EnvelopeDecoderFromBbox referenceDecoder = new EnvelopeDecoderFromBbox(INDEX_PROP_BBOX);
     private int maxNodeReferences;
     private String splitMode = GREENES_SPLIT;
     private boolean shouldMergeTrees = false;
@@ -118,6 +119,13 @@ public class RTreeIndex implements SpatialIndexWriter, Configurable {
 
     @Override
     public void add(Transaction tx, Node geomNode) {
+        add(tx, new GeometryNodeWithEnvelope(geomNode));
+    }
+
+    /**
+     * Adds a geometry node whose envelope has already been decoded.
+     */
+    public void add(Transaction tx, NodeWithEnvelope geomNode) {
         // initialize the search with root
         Node parent = getIndexRoot(tx);
         addBelow(tx, parent, geomNode);
@@ -128,10 +136,10 @@ public class RTreeIndex implements SpatialIndexWriter, Configurable {
     /**
      * This method will add the node somewhere below the parent.
      */
-    private void addBelow(Transaction tx, Node parent, Node geomNode) {
+    private void addBelow(Transaction tx, Node parent, NodeWithEnvelope geomNode) {
         // choose a path down to a leaf
         while (!nodeIsLeaf(parent)) {
-            parent = chooseSubTree(parent, geomNode);
+            parent = chooseSubTree(parent, geomNode.envelope);
         }
         if (countChildren(parent, RTreeRelationshipTypes.RTREE_REFERENCE) >= maxNodeReferences) {
             insertInLeaf(parent, geomNode);
@@ -176,27 +184,33 @@ public class RTreeIndex implements SpatialIndexWriter, Configurable {
      */
     @Override
     public void add(Transaction tx, List<Node> geomNodes) {
+        addAll(tx, decodeGeometryNodeEnvelopes(geomNodes));
+    }
+
+    /**
+     * Bulk insertion of geometry nodes whose envelopes have already been decoded, see {@link #add(Transaction, List)}.
+     * The envelopes are carried through the whole build, so no geometry is parsed again while the tree is constructed.
+     */
+    public void addAll(Transaction tx, List<NodeWithEnvelope> geomNodes) {
         Node rootNode = getIndexRoot(tx);
         //If the insertion is large relative to the size of the tree, simply rebuild the whole tree.
         if (geomNodes.size() > totalGeometryCount * 0.4) {
-            List<Node> nodesToAdd = new ArrayList<>(geomNodes.size() + totalGeometryCount);
-            for (Node n : getAllIndexedNodes(tx)) {
-                nodesToAdd.add(n);
-            }
+            List<NodeWithEnvelope> nodesToAdd = new ArrayList<>(geomNodes.size() + totalGeometryCount);
+            nodesToAdd.addAll(getAllIndexedEntries(tx));
             nodesToAdd.addAll(geomNodes);
             detachGeometryNodes(tx, false, rootNode, new NullListener());
             deleteTreeBelow(rootNode);
-            buildRtreeFromScratch(tx, rootNode, decodeGeometryNodeEnvelopes(nodesToAdd), 0.7);
+            buildRtreeFromScratch(tx, rootNode, nodesToAdd, 0.7);
             countSaved = false;
             totalGeometryCount = nodesToAdd.size();
             monitor.addNbrRebuilt(this, tx);
         } else {
 
-            List<NodeWithEnvelope> outliers = bulkInsertion(tx, rootNode, getHeight(rootNode, 0), decodeGeometryNodeEnvelopes(geomNodes), 0.7);
+            List<NodeWithEnvelope> outliers = bulkInsertion(tx, rootNode, getHeight(rootNode, 0), geomNodes, 0.7);
             countSaved = false;
             totalGeometryCount = totalGeometryCount + (geomNodes.size() - outliers.size());
             for (NodeWithEnvelope n : outliers) {
-                add(tx, n.node);
+                add(tx, n);
             }
         }
     }
@@ -207,7 +221,7 @@ public class RTreeIndex implements SpatialIndexWriter, Configurable {
 
     public static class NodeWithEnvelope {
         public Envelope envelope;
-        Node node;
+        public Node node;
 
         public NodeWithEnvelope(Node node, Envelope envelope) {
             this.node = node;
@@ -337,7 +351,7 @@ public class RTreeIndex implements SpatialIndexWriter, Configurable {
                     // but does tend to limit overlap more than adding to the child exclusively.
 
                     for (NodeWithEnvelope n : cluster) {
-                        addBelow(tx, rootNode, n.node);
+                        addBelow(tx, rootNode, n);
                     }
                 } else {
                     monitor.addCase("h_i == l_t && big cluster");
@@ -363,7 +377,7 @@ public class RTreeIndex implements SpatialIndexWriter, Configurable {
                 if (newHeight == 1) {
                     monitor.addCase("h_i > l_t (d==1)");
                     for (Relationship geom : newRootNode.getRelationships(RTreeRelationshipTypes.RTREE_REFERENCE)) {
-                        addBelow(tx, child.node, geom.getEndNode());
+                        addBelow(tx, child.node, new NodeWithEnvelope(geom.getEndNode(), getChildEnvelope(geom)));
                         geom.delete();
                     }
                 } else {
@@ -496,7 +510,7 @@ public class RTreeIndex implements SpatialIndexWriter, Configurable {
             // We have few enough nodes to add them directly to the current index node
             boolean expandRootNodeBoundingBox = false;
             for (NodeWithEnvelope n : nodes) {
-                expandRootNodeBoundingBox |= insertInLeaf(indexNode, n.node);
+                expandRootNodeBoundingBox |= insertInLeaf(indexNode, n);
             }
             if (expandRootNodeBoundingBox) {
                 adjustPathBoundingBox(indexNode);
@@ -516,7 +530,7 @@ public class RTreeIndex implements SpatialIndexWriter, Configurable {
                 if (partition.size() > 1) {
                     partition(tx, newIndexNode, partition, depth + 1, loadingFactor);
                 } else {
-                    addBelow(tx, newIndexNode, partition.get(0).node);
+                    addBelow(tx, newIndexNode, partition.get(0));
                 }
                 insertIndexNodeOnParent(tx, indexNode, newIndexNode);
             }
@@ -707,6 +721,20 @@ public class RTreeIndex implements SpatialIndexWriter, Configurable {
         return new IndexNodeToGeometryNodeIterable(getAllIndexInternalNodes(tx));
     }
 
+    /**
+     * Returns every indexed geometry node together with the envelope stored on its leaf reference,
+     * so the tree can be rebuilt without parsing the indexed geometries again.
+     */
+    private List<NodeWithEnvelope> getAllIndexedEntries(Transaction tx) {
+        List<NodeWithEnvelope> result = new ArrayList<>(totalGeometryCount);
+        for (Node indexNode : getAllIndexInternalNodes(tx)) {
+            for (Relationship rel : indexNode.getRelationships(Direction.OUTGOING, RTreeRelationshipTypes.RTREE_REFERENCE)) {
+                result.add(new NodeWithEnvelope(rel.getEndNode(), getChildEnvelope(rel)));
+            }
+        }
+        return result;
+    }
+
     private class SearchEvaluator implements Evaluator {
         private final SearchFilter filter;
         private final Transaction tx;
@@ -791,6 +819,17 @@ public class RTreeIndex implements SpatialIndexWriter, Configurable {
         return getIndexNodeEnvelope(child);
     }
 
+    /**
+     * Leaf references store the envelope of their geometry node as relationship properties when they are created,
+     * so it can be read back from there instead of decoding the geometry again.
+     */
+    private Envelope getChildEnvelope(Relationship relationship) {
+        if (relationship.isType(RTreeRelationshipTypes.RTREE_REFERENCE) && relationship.hasProperty("min_x")) {
+            return referenceDecoder.decodeEnvelopeEdge(relationship);
+        }
+        return getChildNodeEnvelope(relationship.getEndNode(), relationship.getType());
+    }
+
     /**
      * The leaf nodes belong to the domain model, and as such need to use
      * the layers domain-specific GeometryEncoder for decoding the envelope.
@@ -899,7 +938,7 @@ public class RTreeIndex implements SpatialIndexWriter, Configurable {
         return !node.hasRelationship(Direction.OUTGOING, RTreeRelationshipTypes.RTREE_CHILD);
     }
 
-    private Node chooseSubTree(Node parentIndexNode, Node geomRootNode) {
+    private Node chooseSubTree(Node parentIndexNode, Envelope geomEnvelope) {
         // children that can contain the new geometry
         List<Node> indexNodes = new ArrayList<>();
 
@@ -907,7 +946,7 @@ public class RTreeIndex implements SpatialIndexWriter, Configurable {
         Iterable<Relationship> relationships = parentIndexNode.getRelationships(Direction.OUTGOING, RTreeRelationshipTypes.RTREE_CHILD);
         for (Relationship relation : relationships) {
             Node indexNode = relation.getEndNode();
-            if (getIndexNodeEnvelope(indexNode).contains(getLeafNodeEnvelope(geomRootNode))) {
+            if (getIndexNodeEnvelope(indexNode).contains(geomEnvelope)) {
                 indexNodes.add(indexNode);
             }
         }
@@ -923,7 +962,7 @@ public class RTreeIndex implements SpatialIndexWriter, Configurable {
         relationships = parentIndexNode.getRelationships(Direction.OUTGOING, RTreeRelationshipTypes.RTREE_CHILD);
         for (Relationship relation : relationships) {
             Node indexNode = relation.getEndNode();
-            double enlargementNeeded = getAreaEnlargement(indexNode, geomRootNode);
+            double enlargementNeeded = getAreaEnlargement(indexNode, geomEnvelope);
 
             if (enlargementNeeded < minimumEnlargement) {
                 indexNodes.clear();
@@ -944,9 +983,9 @@ public class RTreeIndex implements SpatialIndexWriter, Configurable {
         }
     }
 
-    private double getAreaEnlargement(Node indexNode, Node geomRootNode) {
+    private double getAreaEnlargement(Node indexNode, Envelope geomEnvelope) {
         Envelope before = getIndexNodeEnvelope(indexNode);
-        Envelope after = getLeafNodeEnvelope(geomRootNode);
+        Envelope after = new Envelope(geomEnvelope);
         after.expandToInclude(before);
         return getArea(after) - getArea(before);
     }
@@ -977,8 +1016,8 @@ public class RTreeIndex implements SpatialIndexWriter, Configurable {
     /**
      * @return is enlargement needed?
      */
-    private boolean insertInLeaf(Node indexNode, Node geomRootNode) {
-        return addChild(indexNode, RTreeRelationshipTypes.RTREE_REFERENCE, geomRootNode);
+    private boolean insertInLeaf(Node indexNode, NodeWithEnvelope geomNode) {
+        return addChild(indexNode, RTreeRelationshipTypes.RTREE_REFERENCE, geomNode.node, geomNode.envelope);
     }
 
     private void splitAndAdjustPathBoundingBox(Transaction tx, Node indexNode) {
@@ -1063,7 +1102,7 @@ public class RTreeIndex implements SpatialIndexWriter, Configurable {
         Iterable<Relationship> relationships = indexNode.getRelationships(Direction.OUTGOING, relationshipType);
         for (Relationship relationship : relationships) {
             Node node = relationship.getEndNode();
-            entries.add(new NodeWithEnvelope(node, getChildNodeEnvelope(node, relationshipType)));
+            entries.add(new NodeWithEnvelope(node, getChildEnvelope(relationship)));
             relationship.delete();
         }
         return entries;
@@ -1103,11 +1142,11 @@ public class RTreeIndex implements SpatialIndexWriter, Configurable {
 
         List<NodeWithEnvelope> group1 = new ArrayList<>();
         group1.add(seeds[0]);
-        Envelope group1envelope = seeds[0].envelope;
+        Envelope group1envelope = new Envelope(seeds[0].envelope);
 
         List<NodeWithEnvelope> group2 = new ArrayList<>();
         group2.add(seeds[1]);
-        Envelope group2envelope = seeds[1].envelope;
+        Envelope group2envelope = new Envelope(seeds[1].envelope);
 
         entries.remove(seeds[0]);
         entries.remove(seeds[1]);
@@ -1160,14 +1199,14 @@ public class RTreeIndex implements SpatialIndexWriter, Configurable {
         // reset bounding box and add new children
         indexNode.removeProperty(INDEX_PROP_BBOX);
         for (NodeWithEnvelope entry : group1) {
-            addChild(indexNode, relationshipType, entry.node);
+            addChild(indexNode, relationshipType, entry.node, entry.envelope);
         }
 
         // create new node from split
         Node newIndexNode = tx.createNode(Label.label(RTREE_LABEL));
         totalIndexCount++;
         for (NodeWithEnvelope entry : group2) {
-            addChild(newIndexNode, relationshipType, entry.node);
+            addChild(newIndexNode, relationshipType, entry.node, entry.envelope);
         }
 
         return newIndexNode;
@@ -1185,7 +1224,10 @@ public class RTreeIndex implements SpatialIndexWriter, Configurable {
     }
 
     private boolean addChild(Node parent, RelationshipType type, Node newChild) {
-        Envelope childEnvelope = getChildNodeEnvelope(newChild, type);
+        return addChild(parent, type, newChild, getChildNodeEnvelope(newChild, type));
+    }
+
+    private boolean addChild(Node parent, RelationshipType type, Node newChild, Envelope childEnvelope) {
         double[] childBBox = new double[]{
                 childEnvelope.getMinX(), childEnvelope.getMinY(),
                 childEnvelope.getMaxX(), childEnvelope.getMaxY()};
@@ -1217,12 +1259,10 @@ public class RTreeIndex implements SpatialIndexWriter, Configurable {
         Envelope bbox = null;
 
         for (Relationship relationship : indexNode.getRelationships(Direction.OUTGOING, relationshipType)) {
-            Node childNode = relationship.getEndNode();
-
             if (bbox == null) {
-                bbox = new Envelope(getChildNodeEnvelope(childNode, relationshipType));
+                bbox = new Envelope(getChildEnvelope(relationship));
             } else {
-                bbox.expandToInclude(getChildNodeEnvelope(childNode, relationshipType));
+                bbox.expandToInclude(getChildEnvelope(relationship));
             }
         }
 
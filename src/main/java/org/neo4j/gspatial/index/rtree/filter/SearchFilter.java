@@ -10,4 +10,12 @@ public interface SearchFilter {
 
     boolean geometryMatches(Transaction tx, Node geomNode);
 
+    /**
+     * Whether every geometry whose envelope lies inside the given envelope is guaranteed to match.
+     * Searches use this to accept whole subtrees without refining their geometries.
+     */
+    default boolean matchesAll(Envelope envelope) {
+        return false;
+    }
+
 }
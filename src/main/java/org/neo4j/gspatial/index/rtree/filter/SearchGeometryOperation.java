@@ -0,0 +1,94 @@
+package org.neo4j.gspatial.index.rtree.filter;
+
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.gspatial.functions.JoinOperationExecutor.JoinOperation;
+import org.neo4j.gspatial.index.rtree.Envelope;
+import org.neo4j.gspatial.utils.IOUtility;
+
+/**
+ * Find geometries {@code g} for which {@code g <operation> reference} holds.
+ * The reference geometry is prepared once, so refining each candidate only costs an indexed predicate test.
+ * Subtrees are pruned or accepted wholesale from their envelope alone, depending on the operation:
+ * <ul>
+ *     <li>WITHIN, COVERED_BY, INTERSECTS: visit envelopes intersecting the reference, accept those lying inside it.</li>
+ *     <li>CONTAINS, COVERS, EQUALS: visit only envelopes covering the reference envelope.</li>
+ *     <li>TOUCHES, CROSSES, OVERLAPS: visit envelopes intersecting the reference but not lying in its interior.</li>
+ *     <li>DISJOINT: skip envelopes lying in the interior of the reference, accept those not intersecting it.</li>
+ * </ul>
+ */
+public class SearchGeometryOperation implements SearchFilter {
+
+    private final JoinOperation operation;
+    private final JoinOperation converse;
+    private final Geometry referenceGeometry;
+    private final PreparedGeometry preparedGeometry;
+    private final Envelope referenceEnvelope;
+    private final boolean isRectangle;
+
+    public SearchGeometryOperation(JoinOperation operation, Geometry referenceGeometry) {
+        this.operation = operation;
+        this.converse = operation.converse();
+        this.referenceGeometry = referenceGeometry;
+        this.preparedGeometry = PreparedGeometryFactory.prepare(referenceGeometry);
+        this.referenceEnvelope = new Envelope(referenceGeometry.getEnvelopeInternal());
+        this.isRectangle = referenceGeometry.isRectangle();
+    }
+
+    @Override
+    public boolean needsToVisit(Envelope envelope) {
+        return switch (operation) {
+            case CONTAINS, COVERS, EQUALS -> envelope.covers(referenceEnvelope);
+            case TOUCHES, CROSSES, OVERLAPS -> envelope.intersects(referenceEnvelope) && !inInterior(envelope);
+            case DISJOINT -> !inInterior(envelope);
+            default -> envelope.intersects(referenceEnvelope);
+        };
+    }
+
+    @Override
+    public boolean geometryMatches(Transaction tx, Node geomNode) {
+        return geometryMatches(IOUtility.convertNode(geomNode));
+    }
+
+    public boolean geometryMatches(Geometry geometry) {
+        return converse.execute(preparedGeometry, geometry);
+    }
+
+    @Override
+    public boolean matchesAll(Envelope envelope) {
+        return switch (operation) {
+            case WITHIN -> inInterior(envelope);
+            case COVERED_BY, INTERSECTS -> isCovered(envelope);
+            case DISJOINT -> !envelope.intersects(referenceEnvelope);
+            default -> false;
+        };
+    }
+
+    private boolean inInterior(Envelope envelope) {
+        if (isRectangle) {
+            return envelope.getMinX() > referenceEnvelope.getMinX() && envelope.getMaxX() < referenceEnvelope.getMaxX()
+                    && envelope.getMinY() > referenceEnvelope.getMinY() && envelope.getMaxY() < referenceEnvelope.getMaxY();
+        }
+        return referenceEnvelope.contains(envelope) && preparedGeometry.containsProperly(toGeometry(envelope));
+    }
+
+    private boolean isCovered(Envelope envelope) {
+        if (isRectangle) {
+            return referenceEnvelope.covers(envelope);
+        }
+        return referenceEnvelope.covers(envelope) && preparedGeometry.covers(toGeometry(envelope));
+    }
+
+    private Geometry toGeometry(Envelope envelope) {
+        return referenceGeometry.getFactory().toGeometry(new org.locationtech.jts.geom.Envelope(
+                envelope.getMinX(), envelope.getMaxX(), envelope.getMinY(), envelope.getMaxY()));
+    }
+
+    @Override
+    public String toString() {
+        return "SearchGeometryOperation[" + operation + ", " + referenceEnvelope + "]";
+    }
+}
@@ -0,0 +1,149 @@
+package org.neo4j.gspatial.index.rtree.query;
+
+import org.locationtech.jts.geom.Geometry;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.gspatial.index.rtree.Envelope;
+import org.neo4j.gspatial.index.rtree.ProgressLoggingListener;
+import org.neo4j.gspatial.index.rtree.RTreeRelationshipTypes;
+import org.neo4j.gspatial.index.rtree.filter.SearchGeometryOperation;
+import org.neo4j.gspatial.utils.IOUtility;
+import org.neo4j.gspatial.utils.RtreeUtility.ApproximateCountOutput;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+
+/**
+ * Estimates the number and total area of range query matches by random root-to-leaf descents.
+ * Each descent picks one of the children a range query would visit uniformly at random and multiplies the
+ * matches of the leaf it reaches by the product of the branching factors along the path, which is an unbiased
+ * estimate of the match count (Knuth's estimator). Descents are repeated until the 95% confidence interval
+ * is within the requested relative error or the time budget is spent, so the cost does not depend on the
+ * size of the window. While no descent has found a match the variance says nothing, so sampling goes on until the
+ * budget is spent, and the upper bound then follows the rule of three: with 95% confidence fewer than 3 in n
+ * descents reach a matching leaf. Matches of the sampled leaves are returned as a preview.
+ */
+public class ApproximateRange {
+    private static final double Z_95 = 1.96;
+    private static final int MIN_SAMPLES = 30;
+    private static final int MAX_SAMPLES = 100_000;
+
+    private final List<Node> layers;
+    private final SearchGeometryOperation filter;
+    private final double relativeError;
+    private final long timeBudgetNanos;
+    private final int sampleSize;
+    private final ProgressLoggingListener progressListener;
+    private final Set<Node> sample = new LinkedHashSet<>();
+
+    public ApproximateRange(Transaction tx, List<Node> layers, List<Object> args, ProgressLoggingListener progressListener) {
+        this.layers = layers;
+        this.relativeError = ((Number) args.get(0)).doubleValue();
+        this.timeBudgetNanos = ((Number) args.get(1)).longValue() * 1_000_000L;
+        this.sampleSize = ((Number) args.get(2)).intValue();
+        this.filter = new Range(tx, layers, (List<Object>) args.get(3), null, progressListener).newSearchFilter();
+        this.progressListener = progressListener;
+        if (relativeError <= 0 || timeBudgetNanos <= 0 || sampleSize < 0) {
+            throw new IllegalArgumentException("Relative error and time budget must be positive, sample size not negative");
+        }
+    }
+
+    public Stream<ApproximateCountOutput> query() {
+        progressListener.worked(1, "Start sampling index");
+        long start = System.nanoTime();
+        double countSum = 0, countSquares = 0, areaSum = 0, maxEntries = 0;
+        int samples = 0;
+        boolean exact = false;
+        while (samples < MAX_SAMPLES) {
+            double count = 0, area = 0, entries = 0;
+            exact = true;
+            for (Node layer : layers) {
+                double[] estimate = descend(layer.getRelationships(Direction.OUTGOING, RTreeRelationshipTypes.RTREE_ROOT));
+                count += estimate[0];
+                area += estimate[1];
+                entries += estimate[2];
+                exact &= estimate[3] == 1;
+            }
+            countSum += count;
+            countSquares += count * count;
+            areaSum += area;
+            maxEntries = Math.max(maxEntries, entries);
+            samples++;
+            if (exact || System.nanoTime() - start > timeBudgetNanos) {
+                break;
+            }
+            if (samples >= MIN_SAMPLES && countSum > 0 && halfWidth(countSum, countSquares, samples) <= relativeError * countSum / samples) {
+                break;
+            }
+        }
+        double mean = countSum / samples;
+        if (exact) {
+            return Stream.of(new ApproximateCountOutput(mean, mean, mean, areaSum / samples, samples, new ArrayList<>(sample)));
+        }
+        double halfWidth = countSum > 0 ? halfWidth(countSum, countSquares, samples) : 3.0 / samples * maxEntries;
+        return Stream.of(new ApproximateCountOutput(mean, Math.max(0, mean - halfWidth), mean + halfWidth,
+                areaSum / samples, samples, new ArrayList<>(sample)));
+    }
+
+    private static double halfWidth(double sum, double squares, int samples) {
+        if (samples < 2) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double mean = sum / samples;
+        double variance = Math.max(0, (squares - samples * mean * mean) / (samples - 1));
+        return Z_95 * Math.sqrt(variance / samples);
+    }
+
+    /**
+     * One random descent, returning the estimated match count and area below the given relationships,
+     * the estimate had every entry of the last node matched, and 1 when no random choice was made, i.e. the
+     * estimate is the exact count.
+     */
+    private double[] descend(Iterable<Relationship> relationships) {
+        double weight = 1;
+        boolean matchesAll = false;
+        while (true) {
+            List<Relationship> directories = new ArrayList<>();
+            List<Boolean> directoriesMatchingAll = new ArrayList<>();
+            double count = 0, area = 0, entries = 0;
+            for (Relationship rel : relationships) {
+                entries++;
+                boolean relMatchesAll = matchesAll;
+                if (!matchesAll) {
+                    Envelope envelope = QueryUtils.getRelationEnvelope(rel);
+                    if (!filter.needsToVisit(envelope)) {
+                        continue;
+                    }
+                    relMatchesAll = filter.matchesAll(envelope);
+                }
+                if (QueryUtils.isDirectoryRelationship(rel)) {
+                    directories.add(rel);
+                    directoriesMatchingAll.add(relMatchesAll);
+                } else {
+                    progressListener.updateCandidateGeometryCount(1);
+                    Node geomNode = rel.getEndNode();
+                    Geometry geometry = IOUtility.convertNode(geomNode);
+                    if (relMatchesAll || filter.geometryMatches(geometry)) {
+                        count++;
+                        area += geometry.getArea();
+                        if (sample.size() < sampleSize) {
+                            sample.add(geomNode);
+                        }
+                    }
+                }
+            }
+            if (directories.isEmpty()) {
+                return new double[]{weight * count, weight * area, weight * entries, weight == 1 ? 1 : 0};
+            }
+            int chosen = ThreadLocalRandom.current().nextInt(directories.size());
+            progressListener.updateVisitedIndexCount(1);
+            weight *= directories.size();
+            matchesAll = directoriesMatchingAll.get(chosen);
+            relationships = directories.get(chosen).getEndNode().getRelationships(Direction.OUTGOING,
+                    RTreeRelationshipTypes.RTREE_CHILD, RTreeRelationshipTypes.RTREE_REFERENCE);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package org.neo4j.gspatial.index.rtree.query;
+
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.Point;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.gspatial.index.rtree.ProgressLoggingListener;
+import org.neo4j.gspatial.utils.RtreeUtility.KnnBatchOutput;
+import org.neo4j.gspatial.utils.RtreeUtility.KnnOutput;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * kNN for many query geometries at once, i.e. an index based kNN join.
+ * The queries are sorted along a Hilbert curve and cut into partitions of neighbouring queries. Each partition
+ * runs its best-first searches with one {@link IndexEntryCache}, so the index nodes and geometries decoded for
+ * one query are reused by the next, and partitions run concurrently on the shared pool, each in its own read
+ * transaction, when a database service is available. Rows come out partition by partition in Hilbert order,
+ * with at most a few partitions in flight.
+ */
+public class BatchKnn {
+    private static final int PARTITION_SIZE = 512;
+    private static final int HILBERT_ORDER = 16;
+    private static final int CACHED_INDEX_NODES = 4096;
+    private static final int CACHED_GEOMETRIES = 16384;
+
+    private final GraphDatabaseService db;
+    private final Transaction tx;
+    private final List<Node> layers;
+    private final int k;
+    private final double maxDistance;
+    private final boolean geodesic;
+    private final List<Object> queries;
+    private final List<Geometry> queryGeometries;
+    private final ProgressLoggingListener progressListener;
+
+    public BatchKnn(GraphDatabaseService db, Transaction tx, List<Node> layers, List<Object> args, ProgressLoggingListener progressListener) {
+        this.db = db;
+        this.tx = tx;
+        this.layers = layers;
+        this.k = ((Number) args.get(0)).intValue();
+        if (k <= 0) {
+            throw new IllegalArgumentException("k must be positive");
+        }
+        this.maxDistance = Knn.decodeMaxDistance(args, 2);
+        this.geodesic = Knn.decodeGeodesic(args, 3);
+        this.queries = decodeQueries(tx, args.get(1));
+        this.queryGeometries = queries.stream().map(Knn::decodeQueryPoint).toList();
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * The queries are either a list of geometry nodes and points, or the label of the query nodes.
+     */
+    private static List<Object> decodeQueries(Transaction tx, Object queries) {
+        if (queries instanceof String) {
+            List<Object> nodes = new ArrayList<>();
+            tx.findNodes(Label.label((String) queries)).forEachRemaining(nodes::add);
+            return nodes;
+        } else if (queries instanceof List<?>) {
+            return new ArrayList<>((List<?>) queries);
+        }
+        throw new IllegalArgumentException("Queries must be a list of nodes or points, or a label");
+    }
+
+    public Stream<KnnBatchOutput> query() {
+        progressListener.worked(1, "Start searching index");
+        List<int[]> partitions = partition(hilbertOrder());
+        Iterator<KnnBatchOutput> rows = new Iterator<>() {
+            private final Deque<Future<List<Row>>> inFlight = new ArrayDeque<>();
+            private int submitted = 0;
+            private Iterator<Row> current = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext()) {
+                    while (inFlight.size() < 2 * ParallelLayers.poolSize() && submitted < partitions.size()) {
+                        inFlight.add(submit(partitions.get(submitted++)));
+                    }
+                    if (inFlight.isEmpty()) {
+                        return false;
+                    }
+                    current = ParallelLayers.get(inFlight.poll()).iterator();
+                }
+                return true;
+            }
+
+            @Override
+            public KnnBatchOutput next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Row row = current.next();
+                return new KnnBatchOutput(queries.get(row.query), tx.getNodeByElementId(row.neighbourId), row.distance, row.rank);
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(rows, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    private Future<List<Row>> submit(int[] partition) {
+        if (db == null) {
+            return CompletableFuture.completedFuture(search(tx, layers, partition));
+        }
+        List<String> layerIds = layers.stream().map(Node::getElementId).toList();
+        return ParallelLayers.submit(() -> {
+            try (Transaction workerTx = db.beginTx()) {
+                return search(workerTx, layerIds.stream().map(workerTx::getNodeByElementId).toList(), partition);
+            }
+        });
+    }
+
+    private List<Row> search(Transaction searchTx, List<Node> searchLayers, int[] partition) {
+        IndexEntryCache entries = new IndexEntryCache(CACHED_INDEX_NODES, CACHED_GEOMETRIES);
+        List<Row> rows = new ArrayList<>(partition.length * k);
+        for (int query : partition) {
+            Knn knn = new Knn(searchLayers, queryGeometries.get(query), k, maxDistance, geodesic, entries, null, progressListener);
+            int rank = 1;
+            for (Iterator<KnnOutput> neighbours = knn.query().iterator(); neighbours.hasNext(); rank++) {
+                KnnOutput neighbour = neighbours.next();
+                rows.add(new Row(query, neighbour.node.getElementId(), neighbour.distance, rank));
+            }
+        }
+        return rows;
+    }
+
+    private int[] hilbertOrder() {
+        Envelope extent = new Envelope();
+        List<Point> centroids = queryGeometries.stream().map(Geometry::getCentroid).toList();
+        centroids.forEach(centroid -> extent.expandToInclude(centroid.getCoordinate()));
+        int side = (1 << HILBERT_ORDER) - 1;
+        double width = extent.getWidth() > 0 ? extent.getWidth() : 1;
+        double height = extent.getHeight() > 0 ? extent.getHeight() : 1;
+        long[] keys = new long[centroids.size()];
+        for (int i = 0; i < keys.length; i++) {
+            int x = (int) Math.round((centroids.get(i).getX() - extent.getMinX()) / width * side);
+            int y = (int) Math.round((centroids.get(i).getY() - extent.getMinY()) / height * side);
+            keys[i] = hilbertIndex(side + 1, x, y);
+        }
+        return IntStream.range(0, keys.length).boxed()
+                .sorted(Comparator.comparingLong(i -> keys[i]))
+                .mapToInt(Integer::intValue)
+                .toArray();
+    }
+
+    /**
+     * Position of the cell (x, y) along the Hilbert curve filling an n by n grid, n being a power of two.
+     */
+    static long hilbertIndex(int n, int x, int y) {
+        long index = 0;
+        for (int s = n / 2; s > 0; s /= 2) {
+            int rx = (x & s) > 0 ? 1 : 0;
+            int ry = (y & s) > 0 ? 1 : 0;
+            index += (long) s * s * ((3 * rx) ^ ry);
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = n - 1 - x;
+                    y = n - 1 - y;
+                }
+                int t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return index;
+    }
+
+    private static List<int[]> partition(int[] order) {
+        List<int[]> partitions = new ArrayList<>();
+        for (int from = 0; from < order.length; from += PARTITION_SIZE) {
+            partitions.add(Arrays.copyOfRange(order, from, Math.min(from + PARTITION_SIZE, order.length)));
+        }
+        return partitions;
+    }
+
+    private static class Row {
+        final int query;
+        final String neighbourId;
+        final double distance;
+        final int rank;
+
+        Row(int query, String neighbourId, double distance, int rank) {
+            this.query = query;
+            this.neighbourId = neighbourId;
+            this.distance = distance;
+            this.rank = rank;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package org.neo4j.gspatial.index.rtree.query;
+
+import org.locationtech.jts.geom.Geometry;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.gspatial.index.rtree.Envelope;
+import org.neo4j.gspatial.index.rtree.ProgressLoggingListener;
+import org.neo4j.gspatial.index.rtree.RTreeRelationshipTypes;
+import org.neo4j.gspatial.index.rtree.filter.SearchGeometryOperation;
+import org.neo4j.gspatial.utils.IOUtility;
+import org.neo4j.gspatial.utils.RtreeUtility.BatchRangeOutput;
+
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Runs many range queries in a single traversal of the index.
+ * Each window is given in the same form as the arguments of a single range query. An index entry is decoded once
+ * and tested against the windows still active on its path, a subtree is pruned only when no window needs it,
+ * and a geometry is parsed once however many windows refine it. Every hit is tagged with the indices of
+ * the windows it satisfies.
+ */
+public class BatchRange {
+    private final Transaction tx;
+    private final List<Node> layers;
+    private final List<SearchGeometryOperation> filters;
+    private final String cypherQuery;
+    private final ProgressLoggingListener progressListener;
+
+    public BatchRange(Transaction tx, List<Node> layers, List<Object> windows, String cypherQuery, ProgressLoggingListener progressListener) {
+        if (windows.isEmpty()) {
+            throw new IllegalArgumentException("At least one window is required");
+        }
+        this.tx = tx;
+        this.layers = layers;
+        this.cypherQuery = cypherQuery;
+        this.progressListener = progressListener;
+        this.filters = new ArrayList<>(windows.size());
+        for (Object window : windows) {
+            if (!(window instanceof List<?>)) {
+                throw new IllegalArgumentException("Each window must be a list of range query arguments");
+            }
+            filters.add(new Range(tx, layers, (List<Object>) window, cypherQuery, progressListener).newSearchFilter());
+        }
+    }
+
+    public Stream<BatchRangeOutput> query() {
+        Iterator<BatchRangeOutput> hits = new BatchRangeIterator();
+        if (!CypherFilter.isEmpty(cypherQuery)) {
+            hits = new CypherFilter(tx, cypherQuery).filter(hits, hit -> hit.node);
+        }
+        progressListener.worked(1, "Start searching index");
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(hits, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    private class BatchRangeIterator implements Iterator<BatchRangeOutput> {
+        private final Deque<Frame> stack = new ArrayDeque<>();
+        private BatchRangeOutput next;
+
+        BatchRangeIterator() {
+            BitSet allWindows = new BitSet(filters.size());
+            allWindows.set(0, filters.size());
+            for (int i = layers.size() - 1; i >= 0; i--) {
+                stack.push(new Frame(layers.get(i).getRelationships(Direction.OUTGOING, RTreeRelationshipTypes.RTREE_ROOT).iterator(),
+                        allWindows, new BitSet(filters.size())));
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null) {
+                next = advance();
+            }
+            return next != null;
+        }
+
+        @Override
+        public BatchRangeOutput next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            BatchRangeOutput result = next;
+            next = null;
+            return result;
+        }
+
+        private BatchRangeOutput advance() {
+            while (!stack.isEmpty()) {
+                Frame frame = stack.peek();
+                if (!frame.children.hasNext()) {
+                    stack.pop();
+                    continue;
+                }
+                Relationship rel = frame.children.next();
+                BitSet active = new BitSet(filters.size());
+                BitSet matchesAll = (BitSet) frame.matchesAll.clone();
+                if (!frame.active.isEmpty()) {
+                    Envelope envelope = QueryUtils.getRelationEnvelope(rel);
+                    for (int i = frame.active.nextSetBit(0); i >= 0; i = frame.active.nextSetBit(i + 1)) {
+                        SearchGeometryOperation filter = filters.get(i);
+                        if (filter.needsToVisit(envelope)) {
+                            (filter.matchesAll(envelope) ? matchesAll : active).set(i);
+                        }
+                    }
+                }
+                if (active.isEmpty() && matchesAll.isEmpty()) {
+                    continue;
+                }
+                if (QueryUtils.isDirectoryRelationship(rel)) {
+                    progressListener.updateVisitedIndexCount(1);
+                    stack.push(new Frame(getChildRelationships(rel.getEndNode()), active, matchesAll));
+                } else {
+                    progressListener.updateCandidateGeometryCount(1);
+                    Node geomNode = rel.getEndNode();
+                    if (!active.isEmpty()) {
+                        Geometry geometry = IOUtility.convertNode(geomNode);
+                        for (int i = active.nextSetBit(0); i >= 0; i = active.nextSetBit(i + 1)) {
+                            if (filters.get(i).geometryMatches(geometry)) {
+                                matchesAll.set(i);
+                            }
+                        }
+                    }
+                    if (!matchesAll.isEmpty()) {
+                        return new BatchRangeOutput(geomNode, matchesAll.stream().mapToObj(Long::valueOf).toList());
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    private static Iterator<Relationship> getChildRelationships(Node indexNode) {
+        return indexNode.getRelationships(Direction.OUTGOING, RTreeRelationshipTypes.RTREE_CHILD, RTreeRelationshipTypes.RTREE_REFERENCE).iterator();
+    }
+
+    private static class Frame {
+        final Iterator<Relationship> children;
+        final BitSet active;
+        final BitSet matchesAll;
+
+        Frame(Iterator<Relationship> children, BitSet active, BitSet matchesAll) {
+            this.children = children;
+            this.active = active;
+            this.matchesAll = matchesAll;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package org.neo4j.gspatial.index.rtree.query;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Result;
+import org.neo4j.graphdb.Transaction;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Applies a user supplied Cypher fragment to candidate nodes in batches.
+ * The fragment is appended to {@code WITH n}, exactly like the former per-node {@code WITH $node AS n ...} form,
+ * so fragments starting with {@code WHERE}, {@code MATCH} or any other clause keep working,
+ * and a candidate survives when the fragment produces at least one row for it. It runs inside an {@code EXISTS}
+ * subquery and must therefore be read-only.
+ * The wrapping query text never changes, so it is planned once and reused from the query cache for every batch.
+ */
+public class CypherFilter {
+    private static final int MIN_BATCH_SIZE = 128;
+    private static final int MAX_BATCH_SIZE = 8192;
+    private static final String BATCH_QUERY = "UNWIND $nodes AS n WITH n WHERE EXISTS { WITH n %s } RETURN elementId(n) AS id";
+
+    private final Transaction tx;
+    private final String query;
+
+    public CypherFilter(Transaction tx, String cypherQuery) {
+        this.tx = tx;
+        this.query = String.format(BATCH_QUERY, cypherQuery);
+    }
+
+    public static boolean isEmpty(String cypherQuery) {
+        return cypherQuery == null || cypherQuery.isBlank();
+    }
+
+    /**
+     * Filters the nodes with a single query execution, keeping their order.
+     */
+    public List<Node> filter(List<Node> nodes) {
+        if (nodes.isEmpty()) {
+            return nodes;
+        }
+        Set<String> survivors = new HashSet<>();
+        try (Result result = tx.execute(query, Map.of("nodes", nodes))) {
+            while (result.hasNext()) {
+                survivors.add((String) result.next().get("id"));
+            }
+        }
+        List<Node> filteredNodes = new ArrayList<>(survivors.size());
+        for (Node node : nodes) {
+            if (survivors.contains(node.getElementId())) {
+                filteredNodes.add(node);
+            }
+        }
+        return filteredNodes;
+    }
+
+    /**
+     * Lazily filters the nodes, pulling them from the source in batches.
+     * Batches start small so that a consumer stopping early (e.g. LIMIT) does not pay for many candidates,
+     * and grow while the consumer keeps reading.
+     */
+    public Iterator<Node> filter(Iterator<Node> nodes) {
+        return filter(nodes, Function.identity());
+    }
+
+    /**
+     * Like {@link #filter(Iterator)}, for items carrying a node.
+     */
+    public <T> Iterator<T> filter(Iterator<T> items, Function<T, Node> nodeOf) {
+        return filter(items, nodeOf, MIN_BATCH_SIZE);
+    }
+
+    /**
+     * Like {@link #filter(Iterator, Function)}, starting with batches of the given size, for sources whose items
+     * are expensive to produce.
+     */
+    public <T> Iterator<T> filter(Iterator<T> items, Function<T, Node> nodeOf, int initialBatchSize) {
+        return new Iterator<>() {
+            private Iterator<T> batch = Collections.emptyIterator();
+            private int batchSize = Math.max(1, Math.min(initialBatchSize, MAX_BATCH_SIZE));
+
+            @Override
+            public boolean hasNext() {
+                while (!batch.hasNext() && items.hasNext()) {
+                    List<T> candidates = new ArrayList<>(batchSize);
+                    List<Node> candidateNodes = new ArrayList<>(batchSize);
+                    while (candidates.size() < batchSize && items.hasNext()) {
+                        T item = items.next();
+                        candidates.add(item);
+                        candidateNodes.add(nodeOf.apply(item));
+                    }
+                    Set<Node> survivors = new HashSet<>(filter(candidateNodes));
+                    candidates.removeIf(item -> !survivors.contains(nodeOf.apply(item)));
+                    batch = candidates.iterator();
+                    batchSize = Math.min(batchSize * 2, MAX_BATCH_SIZE);
+                }
+                return batch.hasNext();
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return batch.next();
+            }
+        };
+    }
+}
@@ -0,0 +1,94 @@
+package org.neo4j.gspatial.index.rtree.query;
+
+import org.locationtech.jts.geom.Geometry;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.gspatial.constants.SpatialConstants;
+import org.neo4j.gspatial.index.rtree.Envelope;
+import org.neo4j.gspatial.index.rtree.JtsGeometryDecoderFromNode;
+import org.neo4j.gspatial.index.rtree.RTreeRelationshipTypes;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decoded index entries of the nodes a traversal expands, optionally kept for the following traversals.
+ * Queries close to each other expand mostly the same index nodes and refine mostly the same geometries,
+ * so a sequence of spatially sorted queries reuses the decoded children and geometries instead of reading
+ * relationship properties and parsing geometries again. Both maps are bounded and evict the least recently used.
+ * The cache holds entities of one transaction and must not outlive it.
+ */
+class IndexEntryCache {
+    private static final RelationshipType[] CHILD_TYPES = {RTreeRelationshipTypes.RTREE_CHILD, RTreeRelationshipTypes.RTREE_REFERENCE};
+
+    private final JtsGeometryDecoderFromNode geometryDecoder = new JtsGeometryDecoderFromNode(SpatialConstants.GEOMETRYNAME.getValue());
+    private final Map<String, List<Child>> children;
+    private final Map<String, Geometry> geometries;
+
+    /**
+     * A cache keeping nothing, every call decodes afresh.
+     */
+    IndexEntryCache() {
+        this(0, 0);
+    }
+
+    IndexEntryCache(int maxIndexNodes, int maxGeometries) {
+        this.children = boundedMap(maxIndexNodes);
+        this.geometries = boundedMap(maxGeometries);
+    }
+
+    private static <V> Map<String, V> boundedMap(int maxSize) {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    List<Child> roots(Node layer) {
+        return decodeChildren(layer, RTreeRelationshipTypes.RTREE_ROOT);
+    }
+
+    List<Child> children(Node indexNode) {
+        List<Child> result = children.get(indexNode.getElementId());
+        if (result == null) {
+            result = decodeChildren(indexNode, CHILD_TYPES);
+            children.put(indexNode.getElementId(), result);
+        }
+        return result;
+    }
+
+    Geometry geometry(Node geomNode) {
+        Geometry result = geometries.get(geomNode.getElementId());
+        if (result == null) {
+            result = geometryDecoder.decodeGeometry(geomNode);
+            geometries.put(geomNode.getElementId(), result);
+        }
+        return result;
+    }
+
+    private static List<Child> decodeChildren(Node node, RelationshipType... types) {
+        List<Child> result = new ArrayList<>();
+        for (Relationship rel : node.getRelationships(Direction.OUTGOING, types)) {
+            result.add(new Child(rel.getEndNode(), QueryUtils.getRelationEnvelope(rel), QueryUtils.isDirectoryRelationship(rel)));
+        }
+        return result;
+    }
+
+    static class Child {
+        final Node node;
+        final Envelope envelope;
+        final boolean isDirectory;
+
+        Child(Node node, Envelope envelope, boolean isDirectory) {
+            this.node = node;
+            this.envelope = envelope;
+            this.isDirectory = isDirectory;
+        }
+    }
+}
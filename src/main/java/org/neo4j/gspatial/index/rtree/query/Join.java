@@ -1,5 +1,10 @@
 package org.neo4j.gspatial.index.rtree.query;
 
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.locationtech.jts.operation.distance.IndexedFacetDistance;
+import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Transaction;
 import org.neo4j.gspatial.functions.JoinOperationExecutor;
@@ -11,12 +16,51 @@ import org.neo4j.gspatial.utils.RtreeUtility.JoinOutput;
 import org.neo4j.logging.Log;
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
-import static org.neo4j.gspatial.index.rtree.query.QueryUtils.getJoinOutputFromIndexPair;
-
+/**
+ * Spatial join of two layers by synchronized traversal of both indexes.
+ * With a database service, the traversal runs as fork-join tasks on a pool of the join's own, shut down once the
+ * traversal is over, so a slow consumer or a join nested in the rows of another only holds up its own tasks.
+ * Each task expands its intersecting index node pairs one at a time in a read transaction of its own, refines the
+ * leaf pairs it reaches, and descends into the directory pairs below before moving on, splitting a list in halves
+ * whenever it grows beyond {@link #SPLIT_THRESHOLD} pairs. The result pairs of an expansion go through a bounded
+ * buffer read by the result stream once its transaction is closed, and tasks wait while the buffer is full, so memory
+ * stays bounded by the depth first frontier and the buffer whatever the output size, and no transaction stays open
+ * while its task waits. Tasks only exchange element ids, so no entity crosses a transaction. They stop once the stream
+ * is closed or the caller's transaction has ended, and the stream fails rather than waits forever when they stopped
+ * without finishing.
+ * Without a database service the same traversal runs in the caller's transaction on the caller's thread,
+ * collecting the results before they are returned.
+ * Refinement prepares each geometry tested against several partners of a leaf pair, taking the side with more
+ * partners, so its segment index is built once and every test runs against it. Prepared geometries are shared by
+ * all tasks of the join, since a leaf usually meets several leaves of the other index, and dropped when too many.
+ * DISJOINT is answered as an anti-join: the intersecting pairs are found through the index, packed into a sorted
+ * array of primitive longs, and each node of the first layer is then paired with every node of the second layer
+ * outside its run of intersecting partners. The complement is generated lazily, so memory is bounded by the number
+ * of intersecting pairs rather than by the cross product.
+ * WITHIN_DISTANCE d joins the pairs closer than d: the envelopes of the first layer are expanded by d throughout the
+ * traversal, candidates are refined with the prepared geometry and the {@link IndexedFacetDistance} of the geometry
+ * with more partners, and each pair comes with its distance.
+ * Within a leaf pair, candidates come from a plane sweep over the entry envelopes of both leaves, held in primitive
+ * arrays sorted by minimum x. Leaves are decoded and sorted once and shared by every leaf pair they take part in.
+ */
 public class Join {
+    private static final int SPLIT_THRESHOLD = 16;
+    private static final int MAX_PREPARED_GEOMETRIES = 16384;
+    private static final int MAX_CACHED_LEAVES = 4096;
+    private static final String WITHIN_DISTANCE = "WITHIN_DISTANCE";
+    private static final int BUFFER_SIZE = 4096;
+
+    private final GraphDatabaseService db;
     private Transaction tx;
     private Node root1;
     private Node root2;
@@ -25,8 +69,20 @@ public class Join {
     private ProgressLoggingListener progressListener;
     private final JoinOperationExecutor executor;
     private final boolean isDisjoint;
+    private final boolean isWithinDistance;
+    private final double maxDistance;
+    private final Map<String, PreparedGeometry> preparedGeometries = new ConcurrentHashMap<>();
+    private final Map<String, IndexedFacetDistance> facetDistances = new ConcurrentHashMap<>();
+    private final Map<String, Leaf> leaves1 = new ConcurrentHashMap<>();
+    private final Map<String, Leaf> leaves2 = new ConcurrentHashMap<>();
+    private final AtomicBoolean cancelled = new AtomicBoolean(false);
 
     public Join(Transaction tx, List<Node> layers, List<Object> args, Log log, ProgressLoggingListener progressListener) {
+        this(null, tx, layers, args, log, progressListener);
+    }
+
+    public Join(GraphDatabaseService db, Transaction tx, List<Node> layers, List<Object> args, Log log, ProgressLoggingListener progressListener) {
+        this.db = db;
         this.tx = tx;
         this.log = log;
         this.root1 = QueryUtils.getIndexRoot(layers.get(0));
@@ -34,30 +90,273 @@ public class Join {
         this.operationString = args.get(0).toString().toUpperCase();
         this.progressListener = progressListener;
         this.isDisjoint = operationString.equalsIgnoreCase("DISJOINT");
-        this.executor = new JoinOperationExecutor(log, isDisjoint ? "INTERSECTS" : operationString);
+        this.isWithinDistance = operationString.equals(WITHIN_DISTANCE);
+        this.maxDistance = isWithinDistance ? decodeMaxDistance(args) : 0;
+        this.executor = isWithinDistance ? null : new JoinOperationExecutor(log, isDisjoint ? "INTERSECTS" : operationString);
+    }
+
+    private static double decodeMaxDistance(List<Object> args) {
+        if (args.size() < 2 || !(args.get(1) instanceof Number) || ((Number) args.get(1)).doubleValue() < 0) {
+            throw new IllegalArgumentException("WITHIN_DISTANCE requires a non-negative distance");
+        }
+        return ((Number) args.get(1)).doubleValue();
+    }
+
+    /**
+     * The envelope of an entry of the first layer as seen by the traversal, grown by the join distance.
+     */
+    private Envelope expanded(Envelope envelope) {
+        if (maxDistance == 0) {
+            return envelope;
+        }
+        return new Envelope(envelope.getMinX() - maxDistance, envelope.getMaxX() + maxDistance,
+                envelope.getMinY() - maxDistance, envelope.getMaxY() + maxDistance);
+    }
+
+    private List<NodeWithEnvelope> indexChildren(Node indexNode, boolean isFirstLayer) {
+        List<NodeWithEnvelope> children = QueryUtils.getIndexChildren(indexNode);
+        if (isFirstLayer && maxDistance > 0) {
+            children.replaceAll(nwe -> new NodeWithEnvelope(nwe.node, expanded(nwe.envelope)));
+        }
+        return children;
     }
 
     public Stream<JoinOutput> query() {
-        Envelope env1 = QueryUtils.getIndexNodeEnvelope(root1);
+        Envelope env1 = expanded(QueryUtils.getIndexNodeEnvelope(root1));
         Envelope env2 = QueryUtils.getIndexNodeEnvelope(root2);
         if (env1.intersects(env2)) {
             progressListener.worked(1, "Start");
-            List<NodeWithEnvelope.Pair> leafPairs = spatialJoin4(root1, root2, env1.intersection(env2));
-            progressListener.worked(1, "Done exploring index nodes");
-            List<JoinOutput> results = executeSpatialOperations(leafPairs);
-            return results.stream();
+            List<IdPair> roots = List.of(new IdPair(root1.getElementId(), root2.getElementId()));
+            Stream<IdPair> results;
+            if (db == null) {
+                List<IdPair> collected = new ArrayList<>();
+                new JoinTask(roots, collected::add).compute();
+                progressListener.worked(1, "Done Spatial Operation");
+                results = collected.stream();
+            } else {
+                results = stream(roots);
+            }
+            return output(results);
         } else if (isDisjoint) {
-            return getJoinOutputFromIndexPair(root1, root2).stream();
+            return disjoint(Stream.empty());
         } else {
             return Stream.empty();
         }
     }
 
+    /**
+     * A fork-join pool of daemon threads for the tasks of one join.
+     */
+    private static ForkJoinPool newPool() {
+        return new ForkJoinPool(ParallelLayers.poolSize(), pool -> {
+            var thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("gspatial-join-" + thread.getPoolIndex());
+            thread.setDaemon(true);
+            return thread;
+        }, null, false);
+    }
+
+    /**
+     * Whether the tasks should give up: the stream was closed, or the caller's transaction, which reads the
+     * results, has ended.
+     */
+    private boolean stopped() {
+        return cancelled.get() || (db != null && !ParallelLayers.isAlive(tx));
+    }
+
+    /**
+     * Starts the traversal on a pool of its own and streams the result pairs as the tasks produce them.
+     */
+    private Stream<IdPair> stream(List<IdPair> roots) {
+        BlockingQueue<Object> buffer = new ArrayBlockingQueue<>(BUFFER_SIZE);
+        ForkJoinPool pool = newPool();
+        pool.execute(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                Object last = Boolean.TRUE;
+                try {
+                    new JoinTask(roots, pair -> ParallelLayers.offer(buffer, pair, Join.this::stopped)).compute();
+                } catch (Throwable e) {
+                    last = e;
+                } finally {
+                    ParallelLayers.offer(buffer, last, Join.this::stopped);
+                    pool.shutdown();
+                }
+            }
+        });
+
+        Iterator<IdPair> results = new Iterator<>() {
+            private IdPair next;
+            private boolean done;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && !done) {
+                    Object item = ParallelLayers.take(buffer, () -> !pool.isTerminated());
+                    if (item instanceof IdPair) {
+                        next = (IdPair) item;
+                    } else if (item instanceof Throwable) {
+                        cancelled.set(true);
+                        throw ParallelLayers.failure((Throwable) item);
+                    } else {
+                        done = true;
+                        progressListener.worked(1, "Done Spatial Operation");
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public IdPair next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                IdPair result = next;
+                next = null;
+                return result;
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(results, Spliterator.NONNULL), false)
+                .onClose(() -> cancelled.set(true));
+    }
+
+    private Stream<JoinOutput> output(Stream<IdPair> results) {
+        if (isDisjoint) {
+            return disjoint(results);
+        }
+        return results.map(pair -> new JoinOutput(tx.getNodeByElementId(pair.id1), tx.getNodeByElementId(pair.id2),
+                isWithinDistance ? pair.distance : null));
+    }
+
+    /**
+     * The pairs of the cross product of both layers that are not among the intersecting ones.
+     */
+    private Stream<JoinOutput> disjoint(Stream<IdPair> intersecting) {
+        List<Node> geomNodes1 = QueryUtils.getGeometryNodesFromIndex(root1);
+        List<Node> geomNodes2 = QueryUtils.getGeometryNodesFromIndex(root2);
+        Map<String, Integer> positions1 = positions(geomNodes1);
+        Map<String, Integer> positions2 = positions(geomNodes2);
+        long[] intersectingPairs;
+        try (intersecting) {
+            intersectingPairs = intersecting
+                    .mapToLong(pair -> (long) positions1.get(pair.id1) << 32 | positions2.get(pair.id2))
+                    .sorted()
+                    .toArray();
+        }
+        progressListener.worked(1, "Done get All Pairs");
+        return IntStream.range(0, geomNodes1.size()).boxed().flatMap(i -> {
+            long first = (long) i << 32;
+            int from = insertionPoint(intersectingPairs, 0, intersectingPairs.length, first);
+            int to = insertionPoint(intersectingPairs, from, intersectingPairs.length, first + geomNodes2.size());
+            return IntStream.range(0, geomNodes2.size())
+                    .filter(j -> from == to || Arrays.binarySearch(intersectingPairs, from, to, first | j) < 0)
+                    .mapToObj(j -> new JoinOutput(geomNodes1.get(i), geomNodes2.get(j)));
+        });
+    }
+
+    private static Map<String, Integer> positions(List<Node> nodes) {
+        Map<String, Integer> positions = new HashMap<>(nodes.size() * 2);
+        for (int i = 0; i < nodes.size(); i++) {
+            positions.put(nodes.get(i).getElementId(), i);
+        }
+        return positions;
+    }
+
+    /**
+     * The first position in the sorted range holding a value not smaller than the key.
+     */
+    private static int insertionPoint(long[] sorted, int from, int to, long key) {
+        int position = Arrays.binarySearch(sorted, from, to, key);
+        if (position < 0) {
+            return -position - 1;
+        }
+        while (position > from && sorted[position - 1] == key) {
+            position--;
+        }
+        return position;
+    }
+
+    private <T> T inTransaction(Function<Transaction, T> work) {
+        if (db == null) {
+            return work.apply(tx);
+        }
+        try (Transaction workerTx = db.beginTx()) {
+            return work.apply(workerTx);
+        }
+    }
+
+    /**
+     * Joins the subtrees of a list of intersecting directory node pairs, depth first: each pair is expanded by one
+     * level, the results of its leaf pairs are handed to the sink once the expansion's transaction is closed, and the
+     * directory pairs below are joined before the next pair of the list.
+     */
+    private class JoinTask extends RecursiveAction {
+        private final List<IdPair> pairs;
+        private final Consumer<IdPair> sink;
+
+        JoinTask(List<IdPair> pairs, Consumer<IdPair> sink) {
+            this.pairs = pairs;
+            this.sink = sink;
+        }
+
+        @Override
+        protected void compute() {
+            if (db != null && pairs.size() > SPLIT_THRESHOLD) {
+                int middle = pairs.size() / 2;
+                invokeAll(new JoinTask(pairs.subList(0, middle), sink), new JoinTask(pairs.subList(middle, pairs.size()), sink));
+                return;
+            }
+            List<IdPair> results = new ArrayList<>();
+            for (IdPair pair : pairs) {
+                if (stopped()) {
+                    return;
+                }
+                List<IdPair> nextLevel = expand(pair, results);
+                results.forEach(sink);
+                results.clear();
+                if (!nextLevel.isEmpty()) {
+                    new JoinTask(nextLevel, sink).compute();
+                }
+            }
+        }
+    }
+
+    /**
+     * Refines the leaf pairs directly below a directory node pair into the results and returns the directory pairs
+     * below it.
+     */
+    private List<IdPair> expand(IdPair pair, List<IdPair> results) {
+        return inTransaction(taskTx -> {
+            List<IdPair> directoryPairs = new ArrayList<>();
+            Node node1 = taskTx.getNodeByElementId(pair.id1);
+            Node node2 = taskTx.getNodeByElementId(pair.id2);
+            Envelope intersectionRect = expanded(QueryUtils.getIndexNodeEnvelope(node1)).intersection(QueryUtils.getIndexNodeEnvelope(node2));
+            List<NodeWithEnvelope.Pair> leafPairs = new ArrayList<>();
+            for (NodeWithEnvelope.Pair childPair : spatialJoin4(node1, node2, intersectionRect)) {
+                Node child1 = childPair.nwe1.node;
+                Node child2 = childPair.nwe2.node;
+                Envelope childIntersection = childPair.nwe1.envelope.intersection(childPair.nwe2.envelope);
+
+                if (QueryUtils.nodeIsLeaf(child1) && QueryUtils.nodeIsLeaf(child2)) {
+                    leafPairs.add(childPair);
+                } else if (QueryUtils.nodeIsLeaf(child1)) {
+                    leafPairs.addAll(windowQuery(childPair.nwe1, child2, childIntersection, true));
+                } else if (QueryUtils.nodeIsLeaf(child2)) {
+                    leafPairs.addAll(windowQuery(childPair.nwe2, child1, childIntersection, false));
+                } else {
+                    directoryPairs.add(new IdPair(child1.getElementId(), child2.getElementId()));
+                }
+            }
+            executeSpatialOperations(leafPairs, results);
+            return directoryPairs;
+        });
+    }
+
     private List<NodeWithEnvelope.Pair> spatialJoin4(Node node1, Node node2, Envelope intersectionRect) {
-        List<NodeWithEnvelope> rtreeNodes1 = QueryUtils.getIndexChildren(node1).stream()
+        List<NodeWithEnvelope> rtreeNodes1 = indexChildren(node1, true).stream()
                 .filter(nwe -> nwe.envelope.intersects(intersectionRect))
                 .collect(Collectors.toList());
-        List<NodeWithEnvelope> rtreeNodes2 = QueryUtils.getIndexChildren(node2).stream()
+        List<NodeWithEnvelope> rtreeNodes2 = indexChildren(node2, false).stream()
                 .filter(nwe -> nwe.envelope.intersects(intersectionRect))
                 .collect(Collectors.toList());
         progressListener.updateVisitedIndexCount(rtreeNodes1.size() + rtreeNodes2.size());
@@ -65,34 +364,11 @@ public class Join {
         rtreeNodes1.sort(Comparator.comparingDouble(nwe -> nwe.envelope.getMinX()));
         rtreeNodes2.sort(Comparator.comparingDouble(nwe -> nwe.envelope.getMinX()));
 
-        List<NodeWithEnvelope.Pair> pairs = sortedIntersectionTest(rtreeNodes1, rtreeNodes2);
-
-        List<NodeWithEnvelope.Pair> leafPairs = new ArrayList<>();
-        Map<Node, Integer> pinCounts = new HashMap<>();
-        for (NodeWithEnvelope.Pair pair : pairs) {
-            Node child1 = pair.nwe1.node;
-            Node child2 = pair.nwe2.node;
-            Envelope childIntersection = pair.nwe1.envelope.intersection(pair.nwe2.envelope);
-
-            if (QueryUtils.nodeIsLeaf(child1) && QueryUtils.nodeIsLeaf(child2)) {
-                leafPairs.add(pair);
-            } else if (QueryUtils.nodeIsLeaf(child1)) {
-                leafPairs.addAll(windowQuery(pair.nwe1, child2, childIntersection, true));
-            } else if (QueryUtils.nodeIsLeaf(child2)) {
-                leafPairs.addAll(windowQuery(pair.nwe2, child1, childIntersection, false));
-            } else {
-                incrementPinCount(pinCounts, child1);
-                incrementPinCount(pinCounts, child2);
-                leafPairs.addAll(spatialJoin4(child1, child2, childIntersection));
-                decrementPinCount(pinCounts, child1);
-                decrementPinCount(pinCounts, child2);
-            }
-        }
-        return leafPairs;
+        return sortedIntersectionTest(rtreeNodes1, rtreeNodes2);
     }
 
     private List<NodeWithEnvelope.Pair> windowQuery(NodeWithEnvelope leafNwe, Node dirNode, Envelope intersectionRect, boolean isLeft) {
-        return QueryUtils.getIndexChildren(dirNode).stream()
+        return indexChildren(dirNode, !isLeft).stream()
                 .filter(nwe -> nwe.envelope.intersects(intersectionRect))
                 .filter(dirEntry -> leafNwe.envelope.intersects(dirEntry.envelope))
                 .flatMap(dirEntry -> {
@@ -105,19 +381,6 @@ public class Join {
                 .collect(Collectors.toList());
     }
 
-    private void incrementPinCount(Map<Node, Integer> pinCounts, Node node) {
-        pinCounts.put(node, pinCounts.getOrDefault(node, 0) + 1);
-    }
-
-    private void decrementPinCount(Map<Node, Integer> pinCounts, Node node) {
-        int count = pinCounts.getOrDefault(node, 0) - 1;
-        if (count == 0) {
-            pinCounts.remove(node);
-        } else {
-            pinCounts.put(node, count);
-        }
-    }
-
     private List<NodeWithEnvelope.Pair> sortedIntersectionTest(List<NodeWithEnvelope> rtreeNodes1, List<NodeWithEnvelope> rtreeNodes2) {
         List<NodeWithEnvelope.Pair> output = new ArrayList<>();
         int i = 0, j = 0;
@@ -147,36 +410,174 @@ public class Join {
         }
     }
 
-    private List<JoinOutput> executeSpatialOperations(List<NodeWithEnvelope.Pair> leafPairs) {
-        List<NodeWithGeometry.Pair> pairs = new ArrayList<>();
+    private void executeSpatialOperations(List<NodeWithEnvelope.Pair> leafPairs, List<IdPair> results) {
+        int candidates = 0;
         for (NodeWithEnvelope.Pair pair : leafPairs) {
-            List<NodeWithGeometry> geomNodes1 = QueryUtils.getGeomtryNodes(pair.nwe1.node);
-            List<NodeWithGeometry> geomNodes2 = QueryUtils.getGeomtryNodes(pair.nwe2.node);
-            List<NodeWithGeometry.Pair> newPairs = geomNodes1.parallelStream()
-                    .flatMap(geomNode1 -> geomNodes2.parallelStream()
-                            .filter(geomNode2 -> geomNode1.envelope.intersects(geomNode2.envelope))
-                            .map(geomNode2 -> new NodeWithGeometry.Pair(geomNode1, geomNode2)))
-                    .toList();
-            pairs.addAll(newPairs);
-        }
-        progressListener.worked(1, "Done Setting Candidate Pairs");
-        progressListener.updateCandidateGeometryCount(pairs.size());
-
-        List<JoinOutput> results = Collections.synchronizedList(new ArrayList<>());
-        executor.executeOperation(pairs.parallelStream().toList()).forEach(results::add);
-        progressListener.worked(1, "Done Spatial Operation");
+            Leaf leaf1 = leaf(leaves1, pair.nwe1.node, true);
+            Leaf leaf2 = leaf(leaves2, pair.nwe2.node, false);
+            int[] partners1 = new int[leaf1.size()];
+            int[] partners2 = new int[leaf2.size()];
+            int[] candidatePairs = sweep(leaf1, leaf2, partners1, partners2);
+            int candidateCount = candidatePairs[0];
+            candidates += candidateCount;
+            for (int c = 1; c <= 2 * candidateCount; c += 2) {
+                int i = candidatePairs[c];
+                int j = candidatePairs[c + 1];
+                if (isWithinDistance) {
+                    double distance = distance(leaf1, i, partners1[i], leaf2, j, partners2[j]);
+                    if (distance <= maxDistance) {
+                        results.add(new IdPair(leaf1.ids[i], leaf2.ids[j], distance));
+                    }
+                } else if (refine(leaf1, i, partners1[i], leaf2, j, partners2[j])) {
+                    results.add(new IdPair(leaf1.ids[i], leaf2.ids[j], Double.NaN));
+                }
+            }
+        }
+        progressListener.updateCandidateGeometryCount(candidates);
+    }
 
-        if (isDisjoint) {
-            List<JoinOutput> allResults = getJoinOutputFromIndexPair(root1, root2);
-            progressListener.worked(1, "Done get All Pairs");
-            Set<String> intersectsResultsSet = results.parallelStream()
-                    .map(intersectsOutput -> intersectsOutput.node1.getElementId() + "_" + intersectsOutput.node2.getElementId())
-                    .collect(Collectors.toSet());
-            results = allResults.parallelStream()
-                    .filter(joinOutput -> !intersectsResultsSet.contains(joinOutput.node1.getElementId() + "_" + joinOutput.node2.getElementId()))
-                    .collect(Collectors.toList());
+    /**
+     * Plane sweep along x over the entries of two leaves, both sorted by their minimum x. Returns the intersecting
+     * entry pairs as positions, preceded by their count, and counts the partners of every entry.
+     */
+    private static int[] sweep(Leaf leaf1, Leaf leaf2, int[] partners1, int[] partners2) {
+        int[] output = new int[1 + 2 * Math.max(leaf1.size(), leaf2.size())];
+        int count = 0;
+        int i = 0, j = 0;
+        while (i < leaf1.size() && j < leaf2.size()) {
+            boolean first = leaf1.minX[i] <= leaf2.minX[j];
+            Leaf active = first ? leaf1 : leaf2;
+            Leaf other = first ? leaf2 : leaf1;
+            int a = first ? i++ : j++;
+            for (int b = first ? j : i; b < other.size() && other.minX[b] <= active.maxX[a]; b++) {
+                if (active.minY[a] <= other.maxY[b] && other.minY[b] <= active.maxY[a]) {
+                    int position1 = first ? a : b;
+                    int position2 = first ? b : a;
+                    if (output.length < 3 + 2 * count) {
+                        output = Arrays.copyOf(output, output.length * 2);
+                    }
+                    output[1 + 2 * count] = position1;
+                    output[2 + 2 * count] = position2;
+                    count++;
+                    partners1[position1]++;
+                    partners2[position2]++;
+                }
+            }
+        }
+        output[0] = count;
+        return output;
+    }
+
+    /**
+     * The decoded entries of a leaf, shared by all leaf pairs of the join the leaf takes part in.
+     */
+    private Leaf leaf(Map<String, Leaf> cache, Node leafNode, boolean isFirstLayer) {
+        if (cache.size() >= MAX_CACHED_LEAVES) {
+            cache.clear();
+        }
+        return cache.computeIfAbsent(leafNode.getElementId(), id -> new Leaf(QueryUtils.getGeomtryNodes(leafNode), isFirstLayer ? this::expanded : envelope -> envelope));
+    }
+
+    /**
+     * Tests a candidate pair, against the prepared form of whichever geometry has more partners when that is more
+     * than one; preparing a geometry tested only once costs more than it saves.
+     */
+    private boolean refine(Leaf leaf1, int i, int partners1, Leaf leaf2, int j, int partners2) {
+        if (Math.max(partners1, partners2) < 2) {
+            return executor.matches(leaf1.geometries[i], leaf2.geometries[j]);
+        } else if (partners1 >= partners2) {
+            return executor.matches(cached(preparedGeometries, leaf1, i, PreparedGeometryFactory::prepare), leaf2.geometries[j]);
+        } else {
+            return executor.matches(leaf1.geometries[i], cached(preparedGeometries, leaf2, j, PreparedGeometryFactory::prepare));
+        }
+    }
+
+    /**
+     * The distance of a candidate pair, or infinity when it is farther than the join distance, measured from the
+     * indexed facets of whichever geometry has more partners, like {@link #refine}.
+     * Facet distances only compare boundaries, so an intersecting pair, e.g. a point inside a polygon, is first
+     * recognised with the prepared geometry of the same side and gets distance 0.
+     */
+    private double distance(Leaf leaf1, int i, int partners1, Leaf leaf2, int j, int partners2) {
+        Geometry geometry1 = leaf1.geometries[i];
+        Geometry geometry2 = leaf2.geometries[j];
+        if (Math.max(partners1, partners2) < 2) {
+            return geometry1.isWithinDistance(geometry2, maxDistance) ? geometry1.distance(geometry2) : Double.POSITIVE_INFINITY;
+        }
+        Leaf leaf = partners1 >= partners2 ? leaf1 : leaf2;
+        int position = partners1 >= partners2 ? i : j;
+        Geometry other = partners1 >= partners2 ? geometry2 : geometry1;
+        if (cached(preparedGeometries, leaf, position, PreparedGeometryFactory::prepare).intersects(other)) {
+            return 0;
+        }
+        IndexedFacetDistance facets = cached(facetDistances, leaf, position, IndexedFacetDistance::new);
+        return facets.isWithinDistance(other, maxDistance) ? facets.distance(other) : Double.POSITIVE_INFINITY;
+    }
+
+    private static <T> T cached(Map<String, T> cache, Leaf leaf, int position, Function<Geometry, T> factory) {
+        if (cache.size() >= MAX_PREPARED_GEOMETRIES) {
+            cache.clear();
         }
+        return cache.computeIfAbsent(leaf.ids[position], id -> factory.apply(leaf.geometries[position]));
+    }
+
+    /**
+     * The entries of a leaf sorted by the minimum x of their envelopes, with the envelopes in primitive arrays for
+     * the sweep. Only element ids are kept, so a leaf can be shared by tasks running in other transactions.
+     */
+    private static class Leaf {
+        final String[] ids;
+        final Geometry[] geometries;
+        final double[] minX;
+        final double[] maxX;
+        final double[] minY;
+        final double[] maxY;
 
-        return results;
+        Leaf(List<NodeWithGeometry> entries, UnaryOperator<Envelope> envelopeOf) {
+            int size = entries.size();
+            Envelope[] envelopes = new Envelope[size];
+            Integer[] order = new Integer[size];
+            for (int e = 0; e < size; e++) {
+                envelopes[e] = envelopeOf.apply(entries.get(e).envelope);
+                order[e] = e;
+            }
+            Arrays.sort(order, Comparator.comparingDouble(e -> envelopes[e].getMinX()));
+            ids = new String[size];
+            geometries = new Geometry[size];
+            minX = new double[size];
+            maxX = new double[size];
+            minY = new double[size];
+            maxY = new double[size];
+            for (int e = 0; e < size; e++) {
+                NodeWithGeometry entry = entries.get(order[e]);
+                Envelope envelope = envelopes[order[e]];
+                ids[e] = entry.node.getElementId();
+                geometries[e] = entry.geometry;
+                minX[e] = envelope.getMinX();
+                maxX[e] = envelope.getMaxX();
+                minY[e] = envelope.getMinY();
+                maxY[e] = envelope.getMaxY();
+            }
+        }
+
+        int size() {
+            return ids.length;
+        }
+    }
+
+    private static class IdPair {
+        final String id1;
+        final String id2;
+        final double distance;
+
+        IdPair(String id1, String id2) {
+            this(id1, id2, Double.NaN);
+        }
+
+        IdPair(String id1, String id2, double distance) {
+            this.id1 = id1;
+            this.id2 = id2;
+            this.distance = distance;
+        }
     }
 }
@@ -126,7 +126,9 @@ public class JoinOld {
 
         progressListener.worked(1, "Done Setting Candidate Pairs");
         progressListener.updateCandidateGeometryCount(pair.size());
-        return executor.executeOperation(pair);
+        return pair.parallelStream()
+                .filter(p -> executor.matches(p.nwg1.geometry, p.nwg2.geometry))
+                .map(p -> new RtreeUtility.JoinOutput(p.nwg1.node, p.nwg2.node));
     }
 
 }
@@ -3,47 +3,133 @@ package org.neo4j.gspatial.index.rtree.query;
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.GeometryFactory;
-import org.neo4j.graphdb.Direction;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.locationtech.jts.operation.distance.IndexedFacetDistance;
 import org.neo4j.graphdb.Node;
-import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.Transaction;
 import org.neo4j.gspatial.constants.SpatialConstants;
+import org.neo4j.gspatial.index.rtree.Envelope;
 import org.neo4j.gspatial.index.rtree.JtsGeometryDecoderFromNode;
-import org.neo4j.gspatial.index.rtree.KnnVisitor;
 import org.neo4j.gspatial.index.rtree.ProgressLoggingListener;
-import org.neo4j.gspatial.index.rtree.RTreeRelationshipTypes;
+import org.neo4j.gspatial.index.rtree.query.IndexEntryCache.Child;
+import org.neo4j.gspatial.utils.GeodesicUtility;
 import org.neo4j.gspatial.utils.RtreeUtility.KnnOutput;
 
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.List;
-import java.util.PriorityQueue;
+import java.util.*;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
-import static org.neo4j.gspatial.index.rtree.query.QueryUtils.getIndexRoot;
-
+/**
+ * Best-first nearest neighbour search (Hjaltason and Samet).
+ * A single priority queue holds index entries keyed by the minimum distance of their envelope and geometries keyed
+ * by their exact distance. Whatever is popped first is the closest thing left, so geometries come out in increasing
+ * distance and the stream can be read lazily; without k the search simply continues until the consumer stops.
+ * Only index nodes closer than the last returned neighbour are ever expanded.
+ * With a maximum distance, nothing farther is ever queued, so the search ends as soon as the neighbourhood
+ * within that radius is exhausted, possibly with fewer than k neighbours.
+ * In geodesic mode (SRID 4326 only) envelopes are bounded by their great circle distance from the query point and
+ * distances are reported in meters, so neighbours come out in true ground distance order.
+ * A query geometry other than a point is bounded by the distance between its envelope and each index envelope,
+ * and refined with an {@link IndexedFacetDistance} built once for the query, so lines and polygons of any
+ * complexity prune correctly. Facet distances only compare boundaries, so geometries intersecting the query,
+ * including ones lying inside a polygon, are first recognised with a prepared query and get distance 0.
+ * With a Cypher filter, neighbours are checked in small batches as they come out of the search, and the search
+ * keeps going past rejected ones, so k qualifying neighbours are returned whenever the index holds them.
+ * Batches start at k and double, which keeps the search from running far ahead of what the consumer reads.
+ */
 public class Knn {
-    private final Transaction tx;
-    private final Geometry queryPoint;
+    public static final int UNBOUNDED = Integer.MAX_VALUE;
+    private static final int MIN_FILTER_BATCH_SIZE = 16;
+
+    private static final JtsGeometryDecoderFromNode geometryDecoder = new JtsGeometryDecoderFromNode(SpatialConstants.GEOMETRYNAME.getValue());
+
+    private final Geometry queryGeometry;
+    private final double[] queryPointCoords;
+    private final Envelope queryEnvelope;
+    private final IndexedFacetDistance facetDistance;
+    private final PreparedGeometry preparedQuery;
     private final int k;
-    private final PriorityQueue<KnnOutput> nearestNodes;
+    private final double maxDistance;
+    private final boolean geodesic;
     private final List<Node> layers;
     private final ProgressLoggingListener progressListener;
-    private final JtsGeometryDecoderFromNode geometryDecoder;
+    private final IndexEntryCache entries;
+    private final CypherFilter cypherFilter;
 
-    public Knn(Transaction tx, List<Node> layers, List<Object> args, ProgressLoggingListener progressListener) {
-        this.tx = tx;
+    public Knn(Transaction tx, List<Node> layers, List<Object> args, String cypherQuery, ProgressLoggingListener progressListener) {
+        this(layers, decodeQueryPoint(args.get(0)), decodeK(args), decodeMaxDistance(args, 2), decodeGeodesic(args, 3),
+                new IndexEntryCache(), CypherFilter.isEmpty(cypherQuery) ? null : new CypherFilter(tx, cypherQuery), progressListener);
+    }
+
+    Knn(List<Node> layers, Geometry queryGeometry, int k, double maxDistance, boolean geodesic, IndexEntryCache entries,
+        CypherFilter cypherFilter, ProgressLoggingListener progressListener) {
         this.layers = layers;
-        this.geometryDecoder = new JtsGeometryDecoderFromNode(SpatialConstants.GEOMETRYNAME.getValue());
-        this.queryPoint = decodeQueryPoint(args.get(0));
-        this.k = ((Long) args.get(1)).intValue();
-        this.nearestNodes = new PriorityQueue<>(k, Comparator.comparingDouble(KnnOutput::getDistance).reversed());
+        this.queryGeometry = queryGeometry;
+        boolean isPoint = queryGeometry instanceof Point;
+        this.queryPointCoords = isPoint ? new double[]{((Point) queryGeometry).getX(), ((Point) queryGeometry).getY()} : null;
+        this.queryEnvelope = new Envelope(queryGeometry.getEnvelopeInternal());
+        this.facetDistance = isPoint ? null : new IndexedFacetDistance(queryGeometry);
+        this.preparedQuery = isPoint ? null : PreparedGeometryFactory.prepare(queryGeometry);
+        this.k = k;
+        this.maxDistance = maxDistance;
+        this.geodesic = geodesic;
+        this.entries = entries;
+        this.cypherFilter = cypherFilter;
         this.progressListener = progressListener;
     }
 
-    private Geometry decodeQueryPoint(Object arg) {
+    /**
+     * k is optional; when it is omitted or null the neighbours are streamed until the consumer stops.
+     */
+    public static int decodeK(List<Object> args) {
+        if (args.size() < 2 || args.get(1) == null) {
+            return UNBOUNDED;
+        }
+        if (((Number) args.get(1)).longValue() <= 0) {
+            throw new IllegalArgumentException("k must be positive");
+        }
+        return (int) Math.min(((Number) args.get(1)).longValue(), UNBOUNDED);
+    }
+
+    /**
+     * The optional maximum distance at the given argument position; unbounded when missing or null.
+     */
+    static double decodeMaxDistance(List<Object> args, int position) {
+        if (args.size() <= position || args.get(position) == null) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double maxDistance = ((Number) args.get(position)).doubleValue();
+        if (maxDistance < 0) {
+            throw new IllegalArgumentException("Maximum distance must not be negative");
+        }
+        return maxDistance;
+    }
+
+    /**
+     * The optional distance mode at the given argument position, either "planar" (default) or "geodesic".
+     */
+    static boolean decodeGeodesic(List<Object> args, int position) {
+        if (args.size() <= position || args.get(position) == null) {
+            return false;
+        }
+        Object mode = args.get(position);
+        boolean geodesic = mode instanceof Boolean ? (Boolean) mode : "GEODESIC".equalsIgnoreCase(mode.toString());
+        if (!geodesic && !(mode instanceof Boolean) && !"PLANAR".equalsIgnoreCase(mode.toString())) {
+            throw new IllegalArgumentException(String.format("Distance mode %s is not supported", mode));
+        }
+        if (geodesic && SpatialConstants.SRID.getIntValue() != 4326) {
+            throw new IllegalArgumentException("Geodesic distances require SRID 4326");
+        }
+        return geodesic;
+    }
+
+    static Geometry decodeQueryPoint(Object arg) {
         if (arg instanceof Node) {
             return geometryDecoder.decodeGeometry((Node) arg);
+        } else if (arg instanceof Geometry) {
+            return (Geometry) arg;
         } else if (arg instanceof ArrayList<?> && ((ArrayList<?>) arg).get(0) instanceof Double) {
             ArrayList<Double> list = (ArrayList<Double>) arg;
             Coordinate coord = new Coordinate(list.get(0), list.get(1));
@@ -54,46 +140,104 @@ public class Knn {
     }
 
     public Stream<KnnOutput> query() {
-        KnnVisitor visitor = new KnnVisitor(queryPoint, nearestNodes, k, geometryDecoder);
-
-        List<KnnOutput> initialNodes = new ArrayList<>();
-        for (Node layer : layers) {
-            Node root = getIndexRoot(layer);
-            double distance = QueryUtils.getIndexNodeEnvelope(root).distance(visitor.getQueryPointCoords());
-            initialNodes.add(new KnnOutput(root, distance));
+        Iterator<KnnOutput> iterator = new BestFirstIterator();
+        if (cypherFilter != null) {
+            iterator = cypherFilter.filter(iterator, output -> output.node, k == UNBOUNDED ? MIN_FILTER_BATCH_SIZE : k);
         }
+        Stream<KnnOutput> neighbours = StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+        return k == UNBOUNDED ? neighbours : neighbours.limit(k);
+    }
 
-        initialNodes.sort(Comparator.comparingDouble(KnnOutput::getDistance));
-        for (KnnOutput knnOutput : initialNodes) {
-            visitKnn(visitor, knnOutput.getNode());
+    private class BestFirstIterator implements Iterator<KnnOutput> {
+        private final PriorityQueue<Entry> queue = new PriorityQueue<>(Comparator.comparingDouble(entry -> entry.distance));
+        private KnnOutput next;
+
+        BestFirstIterator() {
+            for (Node layer : layers) {
+                for (Child root : entries.roots(layer)) {
+                    enqueue(new Entry(root, envelopeDistance(root), false));
+                }
+            }
         }
 
-        return nearestNodes.stream();
-    }
+        @Override
+        public boolean hasNext() {
+            if (next == null) {
+                next = advance();
+            }
+            return next != null;
+        }
 
-    public void visitKnn(KnnVisitor visitor, Node indexNode) {
-        if (indexNode.hasRelationship(Direction.OUTGOING, RTreeRelationshipTypes.RTREE_CHILD)) {
-            List<KnnOutput> children = new ArrayList<>();
-            for (Relationship rel : indexNode.getRelationships(Direction.OUTGOING, RTreeRelationshipTypes.RTREE_CHILD)) {
-                Node child = rel.getEndNode();
-                double distance = QueryUtils.getIndexNodeEnvelope(child).distance(visitor.getQueryPointCoords());
-                children.add(new KnnOutput(child, distance));
+        @Override
+        public KnnOutput next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
             }
-            progressListener.updateVisitedIndexCount(children.size());
-            children.sort(Comparator.comparingDouble(KnnOutput::getDistance));
-            for (KnnOutput child : children) {
-                if (child.getDistance() > visitor.getNnDistTemp()) {
-                    return;
+            KnnOutput result = next;
+            next = null;
+            return result;
+        }
+
+        private KnnOutput advance() {
+            while (!queue.isEmpty()) {
+                Entry entry = queue.poll();
+                if (entry.isExact) {
+                    return new KnnOutput(entry.child.node, entry.distance);
+                }
+                if (entry.child.isDirectory) {
+                    progressListener.updateVisitedIndexCount(1);
+                    for (Child child : entries.children(entry.child.node)) {
+                        enqueue(new Entry(child, envelopeDistance(child), false));
+                    }
+                } else {
+                    progressListener.updateCandidateGeometryCount(1);
+                    enqueue(new Entry(entry.child, geometryDistance(entries.geometry(entry.child.node)), true));
                 }
-                visitKnn(visitor, child.getNode());
             }
-        } else if (indexNode.hasRelationship(Direction.OUTGOING, RTreeRelationshipTypes.RTREE_REFERENCE)) {
-            int geometryCount = 0;
-            for (Relationship rel : indexNode.getRelationships(Direction.OUTGOING, RTreeRelationshipTypes.RTREE_REFERENCE)) {
-                visitor.onIndexReference(rel.getEndNode());
-                geometryCount++;
+            return null;
+        }
+
+        private void enqueue(Entry entry) {
+            if (entry.distance <= maxDistance) {
+                queue.add(entry);
             }
-            progressListener.updateCandidateGeometryCount(geometryCount);
+        }
+    }
+
+    private double envelopeDistance(Child child) {
+        if (queryPointCoords == null) {
+            return geodesic ? GeodesicUtility.minDistance(queryEnvelope, child.envelope) : queryEnvelope.distance(child.envelope);
+        }
+        if (geodesic) {
+            return GeodesicUtility.minDistance(queryPointCoords[0], queryPointCoords[1], child.envelope);
+        }
+        return child.envelope.distance(queryPointCoords);
+    }
+
+    private double geometryDistance(Geometry geometry) {
+        if (facetDistance == null) {
+            return geodesic ? GeodesicUtility.distance(queryGeometry, geometry) : queryGeometry.distance(geometry);
+        }
+        if (preparedQuery.intersects(geometry)) {
+            return 0;
+        }
+        return geodesic ? GeodesicUtility.haversine(facetDistance.nearestPoints(geometry)) : facetDistance.distance(geometry);
+    }
+
+    /**
+     * A queued index entry or geometry reference; references are first queued by their envelope distance and
+     * queued again with their exact distance once their geometry has been decoded.
+     */
+    private static class Entry {
+        final Child child;
+        final double distance;
+        final boolean isExact;
+
+        Entry(Child child, double distance, boolean isExact) {
+            this.child = child;
+            this.distance = distance;
+            this.isExact = isExact;
         }
     }
 }
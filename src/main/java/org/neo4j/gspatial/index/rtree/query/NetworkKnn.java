@@ -0,0 +1,139 @@
+package org.neo4j.gspatial.index.rtree.query;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.gspatial.index.rtree.ProgressLoggingListener;
+import org.neo4j.gspatial.utils.RtreeUtility.KnnOutput;
+
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Nearest neighbours by network distance, the cost of the cheapest path along relationships of one type
+ * (Incremental Euclidean Restriction, Papadias et al.).
+ * Facilities are pulled from the index in increasing planar distance, which is a lower bound of their network
+ * distance, and the network distance of each is found by a single Dijkstra expansion from the query that is resumed
+ * for every candidate rather than restarted. A facility is returned once no facility still in the index can beat it,
+ * i.e. once the next planar distance is not smaller than its network distance, so results stream lazily in network
+ * distance order and the graph is only expanded as far as the answers require.
+ * The lower bound holds as long as every relationship costs at least the planar distance between its end nodes.
+ * Relationships are followed in both directions; facilities not reachable from the query are never returned.
+ */
+public class NetworkKnn {
+    private final Node queryNode;
+    private final int k;
+    private final RelationshipType relationshipType;
+    private final String weightProperty;
+    private final Knn euclidean;
+    private final ProgressLoggingListener progressListener;
+
+    public NetworkKnn(Transaction tx, List<Node> layers, List<Object> args, ProgressLoggingListener progressListener) {
+        if (!(args.get(0) instanceof Node)) {
+            throw new IllegalArgumentException("Network kNN requires a query node on the network");
+        }
+        this.queryNode = (Node) args.get(0);
+        this.k = Knn.decodeK(args);
+        if (args.size() < 4 || args.get(2) == null || args.get(3) == null) {
+            throw new IllegalArgumentException("Network kNN requires a relationship type and a weight property");
+        }
+        this.relationshipType = RelationshipType.withName((String) args.get(2));
+        this.weightProperty = (String) args.get(3);
+        this.euclidean = new Knn(layers, Knn.decodeQueryPoint(queryNode), Knn.UNBOUNDED, Double.POSITIVE_INFINITY, false,
+                new IndexEntryCache(), null, progressListener);
+        this.progressListener = progressListener;
+    }
+
+    public Stream<KnnOutput> query() {
+        progressListener.worked(1, "Start searching index");
+        Stream<KnnOutput> neighbours = StreamSupport.stream(Spliterators.spliteratorUnknownSize(new IncrementalIterator(),
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+        return k == Knn.UNBOUNDED ? neighbours : neighbours.limit(k);
+    }
+
+    private class IncrementalIterator implements Iterator<KnnOutput> {
+        private final Iterator<KnnOutput> candidates = euclidean.query().iterator();
+        private final PriorityQueue<KnnOutput> found = new PriorityQueue<>(Comparator.comparingDouble(KnnOutput::getDistance));
+        private final Dijkstra network = new Dijkstra();
+        private KnnOutput lookahead;
+
+        @Override
+        public boolean hasNext() {
+            while (true) {
+                if (lookahead == null && candidates.hasNext()) {
+                    lookahead = candidates.next();
+                }
+                if (!found.isEmpty() && (lookahead == null || lookahead.distance >= found.peek().distance)) {
+                    return true;
+                }
+                if (lookahead == null) {
+                    return false;
+                }
+                double networkDistance = network.distanceTo(lookahead.node);
+                if (networkDistance < Double.POSITIVE_INFINITY) {
+                    found.add(new KnnOutput(lookahead.node, networkDistance));
+                }
+                lookahead = null;
+            }
+        }
+
+        @Override
+        public KnnOutput next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return found.poll();
+        }
+    }
+
+    /**
+     * A Dijkstra expansion from the query node that settles nodes only until the requested one is settled,
+     * keeping its frontier for the next request.
+     */
+    private class Dijkstra {
+        private final Map<String, Double> settled = new HashMap<>();
+        private final Map<String, Double> tentative = new HashMap<>();
+        private final PriorityQueue<Map.Entry<Node, Double>> frontier = new PriorityQueue<>(Map.Entry.comparingByValue());
+
+        Dijkstra() {
+            tentative.put(queryNode.getElementId(), 0.0);
+            frontier.add(Map.entry(queryNode, 0.0));
+        }
+
+        double distanceTo(Node target) {
+            String targetId = target.getElementId();
+            while (!settled.containsKey(targetId) && !frontier.isEmpty()) {
+                Map.Entry<Node, Double> entry = frontier.poll();
+                Node node = entry.getKey();
+                if (settled.containsKey(node.getElementId())) {
+                    continue;
+                }
+                settled.put(node.getElementId(), entry.getValue());
+                for (Relationship rel : node.getRelationships(Direction.BOTH, relationshipType)) {
+                    Node neighbour = rel.getOtherNode(node);
+                    if (settled.containsKey(neighbour.getElementId())) {
+                        continue;
+                    }
+                    double distance = entry.getValue() + weight(rel);
+                    Double known = tentative.get(neighbour.getElementId());
+                    if (known == null || distance < known) {
+                        tentative.put(neighbour.getElementId(), distance);
+                        frontier.add(Map.entry(neighbour, distance));
+                    }
+                }
+            }
+            return settled.getOrDefault(targetId, Double.POSITIVE_INFINITY);
+        }
+
+        private double weight(Relationship rel) {
+            Object weight = rel.getProperty(weightProperty, null);
+            if (!(weight instanceof Number) || ((Number) weight).doubleValue() < 0) {
+                throw new IllegalArgumentException(String.format("Relationship %s has no non-negative %s", rel.getElementId(), weightProperty));
+            }
+            return ((Number) weight).doubleValue();
+        }
+    }
+}
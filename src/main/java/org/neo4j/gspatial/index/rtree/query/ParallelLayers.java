@@ -0,0 +1,261 @@
+package org.neo4j.gspatial.index.rtree.query;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.gspatial.utils.IOUtility;
+import org.neo4j.kernel.api.KernelTransaction;
+import org.neo4j.kernel.impl.coreapi.InternalTransaction;
+import org.neo4j.gspatial.utils.RtreeUtility.KnnOutput;
+import org.neo4j.gspatial.utils.RtreeUtility.RangeOutput;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Runs a query on every layer concurrently, one read transaction per layer, on threads of its own.
+ * Every query gets its own small executor, shut down once its workers are done, so a consumer reading slowly, or a
+ * query nested in the rows of another, only holds up its own workers and never those of other queries.
+ * Node arguments are decoded into geometries on the caller's thread before the workers start (see {@link #detach}),
+ * and workers only hand element ids and distances back, which are bound to the caller's transaction on the way out,
+ * so workers never touch an entity of the caller's transaction.
+ * Worker transactions do not see changes not yet committed by the caller, so a caller with pending changes must
+ * run its query serially instead (see {@link #hasPendingChanges}).
+ * Waits on either side are bounded: workers give up once the stream is closed or the caller's transaction has ended,
+ * and the consumer fails rather than waits forever when the workers stopped without finishing.
+ */
+public class ParallelLayers {
+    private static final int POOL_SIZE = Math.max(2, Math.min(Runtime.getRuntime().availableProcessors(), 16));
+    private static final int BUFFER_SIZE = 4096;
+    private static final long WAIT_TIMEOUT_MS = 100;
+    private static final ExecutorService POOL = newExecutor("gspatial-batch", POOL_SIZE);
+
+    private final GraphDatabaseService db;
+    private final Transaction tx;
+    private final List<Node> layers;
+
+    public ParallelLayers(GraphDatabaseService db, Transaction tx, List<Node> layers) {
+        this.db = db;
+        this.tx = tx;
+        this.layers = layers;
+    }
+
+    /**
+     * Streams the range results of all layers as they are found, in no particular layer order.
+     * Workers block on a bounded buffer when the consumer falls behind, and stop once the stream is closed.
+     */
+    public Stream<RangeOutput> range(BiFunction<Transaction, List<Node>, Stream<?>> layerQuery) {
+        BlockingQueue<Object> buffer = new ArrayBlockingQueue<>(BUFFER_SIZE);
+        AtomicBoolean cancelled = new AtomicBoolean(false);
+        BooleanSupplier stopped = () -> cancelled.get() || !isAlive(tx);
+        ExecutorService workers = newExecutor("gspatial-layer", Math.min(layers.size(), POOL_SIZE));
+        for (Node layer : layers) {
+            String layerId = layer.getElementId();
+            workers.execute(() -> {
+                Object last = Boolean.TRUE;
+                try (Transaction workerTx = db.beginTx()) {
+                    Iterator<?> results = layerQuery.apply(workerTx, List.of(workerTx.getNodeByElementId(layerId))).iterator();
+                    while (!stopped.getAsBoolean() && results.hasNext()) {
+                        offer(buffer, ((RangeOutput) results.next()).node.getElementId(), stopped);
+                    }
+                } catch (Throwable e) {
+                    last = e;
+                } finally {
+                    offer(buffer, last, stopped);
+                }
+            });
+        }
+        workers.shutdown();
+
+        Iterator<RangeOutput> merged = new Iterator<>() {
+            private int running = layers.size();
+            private String next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && running > 0) {
+                    Object item = take(buffer, () -> !workers.isTerminated());
+                    if (item instanceof String) {
+                        next = (String) item;
+                    } else if (item instanceof Throwable) {
+                        cancelled.set(true);
+                        throw failure((Throwable) item);
+                    } else {
+                        running--;
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public RangeOutput next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Node node = tx.getNodeByElementId(next);
+                next = null;
+                return new RangeOutput(node);
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(merged, Spliterator.NONNULL), false)
+                .onClose(() -> cancelled.set(true));
+    }
+
+    /**
+     * Runs the kNN query on every layer and keeps the global k nearest of the per-layer results.
+     */
+    public Stream<KnnOutput> knn(int k, BiFunction<Transaction, List<Node>, Stream<?>> layerQuery) {
+        ExecutorService workers = newExecutor("gspatial-layer", Math.min(layers.size(), POOL_SIZE));
+        List<Future<List<Map.Entry<String, Double>>>> futures = new ArrayList<>(layers.size());
+        for (Node layer : layers) {
+            String layerId = layer.getElementId();
+            futures.add(workers.submit(() -> {
+                try (Transaction workerTx = db.beginTx()) {
+                    return layerQuery.apply(workerTx, List.of(workerTx.getNodeByElementId(layerId)))
+                            .map(KnnOutput.class::cast)
+                            .map(output -> Map.entry(output.node.getElementId(), output.distance))
+                            .toList();
+                }
+            }));
+        }
+        workers.shutdown();
+
+        PriorityQueue<Map.Entry<String, Double>> nearest = new PriorityQueue<>(k + 1, Map.Entry.<String, Double>comparingByValue().reversed());
+        try {
+            for (Future<List<Map.Entry<String, Double>>> future : futures) {
+                for (Map.Entry<String, Double> candidate : get(future)) {
+                    nearest.add(candidate);
+                    if (nearest.size() > k) {
+                        nearest.poll();
+                    }
+                }
+            }
+        } finally {
+            futures.forEach(future -> future.cancel(true));
+        }
+        return nearest.stream()
+                .sorted(Map.Entry.comparingByValue())
+                .map(entry -> new KnnOutput(tx.getNodeByElementId(entry.getKey()), entry.getValue()));
+    }
+
+    /**
+     * Replaces the node arguments of a query by their geometry, read in the caller's transaction, so that the
+     * arguments can be handed to workers running in their own transactions.
+     */
+    public static List<Object> detach(List<Object> args) {
+        List<Object> detached = new ArrayList<>(args.size());
+        for (Object arg : args) {
+            detached.add(arg instanceof Node ? IOUtility.convertNode((Node) arg) : arg);
+        }
+        return detached;
+    }
+
+    /**
+     * Whether the transaction holds changes not committed yet. Such changes are invisible to the transactions of
+     * workers, so queries of such a transaction must run in it, on the caller's thread.
+     */
+    public static boolean hasPendingChanges(Transaction tx) {
+        return tx instanceof InternalTransaction internal && internal.kernelTransaction().dataRead().transactionStateHasChanges();
+    }
+
+    /**
+     * Whether the transaction is still open and not terminated, i.e. whether its query may still read results.
+     */
+    static boolean isAlive(Transaction tx) {
+        if (!(tx instanceof InternalTransaction internal)) {
+            return true;
+        }
+        try {
+            KernelTransaction kernelTx = internal.kernelTransaction();
+            return kernelTx != null && kernelTx.isOpen() && !kernelTx.isTerminated();
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * A fixed size pool of daemon threads.
+     */
+    static ExecutorService newExecutor(String name, int threads) {
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * The exception to throw on the consumer's side for a failure of a worker.
+     */
+    static RuntimeException failure(Throwable cause) {
+        return cause instanceof RuntimeException ? (RuntimeException) cause : new IllegalStateException("Worker failed", cause);
+    }
+
+    static int poolSize() {
+        return POOL_SIZE;
+    }
+
+    /**
+     * Runs a task on the pool shared by all queries; the task must open its own transaction and must not wait for
+     * a consumer, so that every task finishes on its own.
+     */
+    static <T> Future<T> submit(Callable<T> task) {
+        return POOL.submit(task);
+    }
+
+    /**
+     * Puts an item in the buffer, waiting while it is full, unless the consumer has stopped in the meantime.
+     */
+    static void offer(BlockingQueue<Object> buffer, Object item, BooleanSupplier stopped) {
+        try {
+            while (!stopped.getAsBoolean() && !buffer.offer(item, WAIT_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                // wait for the consumer to catch up or to stop
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Takes the next item of the buffer, failing once the producers have stopped without leaving one.
+     */
+    static Object take(BlockingQueue<Object> buffer, BooleanSupplier running) {
+        try {
+            while (true) {
+                boolean wasRunning = running.getAsBoolean();
+                Object item = buffer.poll(WAIT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                if (item != null) {
+                    return item;
+                }
+                if (!wasRunning) {
+                    throw new IllegalStateException("Workers stopped without finishing");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for layer results", e);
+        }
+    }
+
+    static <T> T get(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for layer results", e);
+        } catch (ExecutionException e) {
+            throw failure(e.getCause());
+        }
+    }
+}
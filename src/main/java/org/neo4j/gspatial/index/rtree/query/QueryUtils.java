@@ -9,7 +9,6 @@ import org.neo4j.gspatial.index.rtree.Envelope;
 import org.neo4j.gspatial.index.rtree.EnvelopeDecoderFromBbox;
 import org.neo4j.gspatial.index.rtree.JtsGeometryDecoderFromNode;
 import org.neo4j.gspatial.index.rtree.RTreeRelationshipTypes;
-import org.neo4j.gspatial.utils.RtreeUtility;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -154,16 +153,4 @@ public class QueryUtils {
         }
         return result;
     }
-
-    public static List<RtreeUtility.JoinOutput> getJoinOutputFromIndexPair(Node index1, Node index2) {
-        List<RtreeUtility.JoinOutput> results = new ArrayList<>();
-        List<Node> geomNodes1 = getGeometryNodesFromIndex(index1);
-        List<Node> geomNodes2 = getGeometryNodesFromIndex(index2);
-        for (Node geomNode1 : geomNodes1) {
-            for (Node geomNode2 : geomNodes2) {
-                results.add(new RtreeUtility.JoinOutput(geomNode1, geomNode2));
-            }
-        }
-        return results;
-    }
 }
@@ -1,46 +1,87 @@
 package org.neo4j.gspatial.index.rtree.query;
 
 import org.locationtech.jts.geom.Geometry;
-import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.Node;
-import org.neo4j.graphdb.Result;
 import org.neo4j.graphdb.Transaction;
 import org.neo4j.gspatial.constants.SpatialConstants;
+import org.neo4j.gspatial.functions.JoinOperationExecutor.JoinOperation;
 import org.neo4j.gspatial.index.rtree.*;
+import org.neo4j.gspatial.index.rtree.filter.SearchGeometryOperation;
+import org.neo4j.gspatial.utils.GeometryUtility;
 import org.neo4j.gspatial.utils.IOUtility;
+import org.neo4j.gspatial.utils.RtreeUtility.CountOutput;
+import org.neo4j.gspatial.utils.RtreeUtility.ExistsOutput;
+import org.neo4j.gspatial.utils.RtreeUtility.PageOutput;
 import org.neo4j.gspatial.utils.RtreeUtility.RangeOutput;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.Objects;
-import java.util.stream.Collectors;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
 public class Range {
+    private static final String CURSOR_SEPARATOR = ".";
+    private static final int FINGERPRINT_BYTES = 12;
+
     private final Transaction tx;
-    private final Envelope searchEnvelope;
     private final Geometry searchGeometry;
+    private final JoinOperation operation;
     private final List<Node> layers;
     private final ProgressLoggingListener progressListener;
-    private final EnvelopeDecoderFromBbox bboxDecoder = new EnvelopeDecoderFromBbox("bbox");
     private final EnvelopeDecoderFromJtsGeometry geometryDecoder = new EnvelopeDecoderFromJtsGeometry(SpatialConstants.GEOMETRYNAME.getValue());
     private final String cypherQuery;
 
     public Range(Transaction tx, List<Node> layers, List<Object> args, String cypherQuery, ProgressLoggingListener progressListener) {
         this.tx = tx;
         this.layers = layers;
-        this.searchEnvelope = decodeReferenceEnvelope(args);
-        this.searchGeometry = searchEnvelope.toGeometry();
+        JoinOperation requested = decodeOperation(args);
+        this.operation = requested == null ? JoinOperation.WITHIN : requested;
+        this.searchGeometry = decodeSearchGeometry(requested == null ? args : args.subList(0, args.size() - 1));
         this.progressListener = progressListener;
         this.cypherQuery = cypherQuery;
     }
 
+    /**
+     * An optional trailing topology operation name selects the predicate {@code node <operation> region}.
+     * Returns null when no operation is given, in which case nodes within the region are searched.
+     */
+    private static JoinOperation decodeOperation(List<Object> args) {
+        if (args.size() > 1 && args.get(args.size() - 1) instanceof String) {
+            String operationName = (String) args.get(args.size() - 1);
+            if (!JoinOperation.isTopologyOperation(operationName)) {
+                throw new IllegalArgumentException(String.format("Operation %s is not supported", operationName));
+            }
+            return JoinOperation.valueOf(operationName.toUpperCase());
+        }
+        return null;
+    }
+
+    /**
+     * The search region is either a geometry (WKT string or geometry node), a buffered node or point, or a bbox.
+     */
+    private Geometry decodeSearchGeometry(List<Object> args) {
+        if (args.size() == 1) {
+            if (args.get(0) instanceof Node) {
+                return IOUtility.convertNode((Node) args.get(0));
+            } else if (args.get(0) instanceof String) {
+                return GeometryUtility.parseGeometry((String) args.get(0));
+            } else if (args.get(0) instanceof Geometry) {
+                return (Geometry) args.get(0);
+            } else {
+                throw new IllegalArgumentException("Invalid argument");
+            }
+        }
+        return decodeReferenceEnvelope(args).toGeometry();
+    }
+
     private Envelope decodeReferenceEnvelope(List<Object> args) {
         if (args.size() == 2) {
             if (args.get(0) instanceof Node) {
                 return geometryDecoder.bufferEnvelope((Node) args.get(0), (Double) args.get(1));
+            } else if (args.get(0) instanceof Geometry) {
+                return geometryDecoder.bufferEnvelope((Geometry) args.get(0), (Double) args.get(1));
             } else if (args.get(0) instanceof ArrayList<?> && ((ArrayList<?>) args.get(0)).get(0) instanceof Double) {
                 ArrayList<Double> list = (ArrayList<Double>) args.get(0);
                 return geometryDecoder.bufferEnvelope(list, (Double) args.get(1));
@@ -55,56 +96,103 @@ public class Range {
     }
 
     public Stream<RangeOutput> query() {
-        List<Node> candidateNodes = searchTree(layers, new ArrayList<>());
-        progressListener.worked(1, "Done searching index");
-        candidateNodes = filterCandidatesWithCypher(candidateNodes);
-        progressListener.updateCandidateGeometryCount(candidateNodes.size());
-        return candidateNodes.parallelStream()
-                .filter(this::isWithinSearchEnvelope)
+        Iterator<Node> hits = search();
+        progressListener.worked(1, "Start searching index");
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(hits, Spliterator.ORDERED | Spliterator.NONNULL), false)
                 .map(RangeOutput::new);
     }
 
-    private List<Node> filterCandidatesWithCypher(List<Node> candidateNodes) {
-        if (cypherQuery == null || cypherQuery.isEmpty()) {
-            return candidateNodes;
+    /**
+     * Counts the matches without streaming them. Without a Cypher filter, subtrees lying entirely in the result
+     * are counted from the index structure alone and only the boundary leaves are refined.
+     */
+    public Stream<CountOutput> count() {
+        progressListener.worked(1, "Start counting index");
+        if (CypherFilter.isEmpty(cypherQuery)) {
+            return Stream.of(new CountOutput(newRangeIterator().count()));
+        }
+        long count = 0;
+        for (Iterator<Node> hits = search(); hits.hasNext(); hits.next()) {
+            count++;
         }
+        return Stream.of(new CountOutput(count));
+    }
 
-        List<Node> filteredNodes = new ArrayList<>();
-        for (Node node : candidateNodes) {
-            String query = String.format("WITH $node AS n %s", cypherQuery);
-            Map<String, Object> params = Map.of("node", node);
-            Result result = tx.execute(query, params);
-            if (result.hasNext()) {
-                filteredNodes.add(node);
+    /**
+     * Reports whether there is at least one match, stopping the traversal at the first confirmed hit.
+     */
+    public Stream<ExistsOutput> exists() {
+        progressListener.worked(1, "Start searching index");
+        return Stream.of(new ExistsOutput(search().hasNext()));
+    }
+
+    /**
+     * Returns one page of matches together with the cursor to pass for the next page, null after the last page.
+     * The traversal resumes from the cursor, so every page costs about the same regardless of its position.
+     * Candidates are handed to the Cypher filter only as many as are still missing from the page,
+     * so the cursor never points past a match that has not been returned.
+     * The cursor starts with a fingerprint of the layers, search region, operation and Cypher filter, and is rejected
+     * when passed back with other arguments, whose traversal it does not describe.
+     */
+    public Stream<PageOutput> page(int pageSize, String cursor) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Page size must be positive");
+        }
+        SearchGeometryOperation filter = newSearchFilter();
+        String fingerprint = fingerprint();
+        RangeIterator candidates;
+        if (cursor == null || cursor.isBlank()) {
+            candidates = new RangeIterator(tx, layers, filter, progressListener);
+        } else if (cursor.startsWith(fingerprint + CURSOR_SEPARATOR)) {
+            candidates = new RangeIterator(tx, cursor.substring(fingerprint.length() + 1), filter, progressListener);
+        } else {
+            throw new IllegalArgumentException("Invalid cursor: it was not returned for these layers and arguments");
+        }
+        progressListener.worked(1, "Start searching index");
+        List<Node> nodes = new ArrayList<>(pageSize);
+        if (CypherFilter.isEmpty(cypherQuery)) {
+            while (nodes.size() < pageSize && candidates.hasNext()) {
+                nodes.add(candidates.next());
+            }
+        } else {
+            CypherFilter cypherFilter = new CypherFilter(tx, cypherQuery);
+            while (nodes.size() < pageSize && candidates.hasNext()) {
+                List<Node> batch = new ArrayList<>(pageSize - nodes.size());
+                while (batch.size() < pageSize - nodes.size() && candidates.hasNext()) {
+                    batch.add(candidates.next());
+                }
+                nodes.addAll(cypherFilter.filter(batch));
             }
         }
-        return filteredNodes;
+        String next = candidates.cursor();
+        return Stream.of(new PageOutput(nodes, next == null ? null : fingerprint + CURSOR_SEPARATOR + next));
+    }
+
+    private String fingerprint() {
+        StringJoiner arguments = new StringJoiner("|");
+        layers.forEach(layer -> arguments.add(layer.getElementId()));
+        arguments.add(operation.name()).add(searchGeometry.norm().toText()).add(cypherQuery == null ? "" : cypherQuery.strip());
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(arguments.toString().getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(digest, FINGERPRINT_BYTES));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Iterator<Node> search() {
+        Iterator<Node> hits = newRangeIterator();
+        if (!CypherFilter.isEmpty(cypherQuery)) {
+            hits = new CypherFilter(tx, cypherQuery).filter(hits);
+        }
+        return hits;
     }
 
-    private boolean isWithinSearchEnvelope(Node node) {
-        Geometry geom = IOUtility.convertNode(node);
-        return geom.within(searchGeometry);
+    private RangeIterator newRangeIterator() {
+        return new RangeIterator(tx, layers, newSearchFilter(), progressListener);
     }
 
-    public List<Node> searchTree(List<Node> indexes, List<Node> candidateNodes) {
-        progressListener.updateVisitedIndexCount(indexes.size());
-
-        List<Node> nextLevelNodes = indexes.stream()
-                .flatMap(index -> StreamSupport.stream(index.getRelationships(Direction.OUTGOING).spliterator(), false))
-                .filter(rel -> QueryUtils.isDirectoryRelationship(rel) || rel.isType(RTreeRelationshipTypes.RTREE_REFERENCE))
-                .map(rel -> {
-                    Envelope envelope = bboxDecoder.decodeEnvelopeEdge(rel);
-                    if (searchEnvelope.intersects(envelope)) {
-                        if (QueryUtils.isDirectoryRelationship(rel)) {
-                            return rel.getEndNode();
-                        } else {
-                            candidateNodes.add(rel.getEndNode());
-                        }
-                    }
-                    return null;
-                })
-                .filter(Objects::nonNull)
-                .collect(Collectors.toList());
-        return nextLevelNodes.isEmpty() ? candidateNodes : searchTree(nextLevelNodes, candidateNodes);
+    SearchGeometryOperation newSearchFilter() {
+        return new SearchGeometryOperation(operation, searchGeometry);
     }
 }
@@ -0,0 +1,192 @@
+package org.neo4j.gspatial.index.rtree.query;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.gspatial.index.rtree.Envelope;
+import org.neo4j.gspatial.index.rtree.ProgressLoggingListener;
+import org.neo4j.gspatial.index.rtree.RTreeRelationshipTypes;
+import org.neo4j.gspatial.index.rtree.filter.SearchFilter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Lazy depth-first traversal of one or more R-tree layers.
+ * Only the relationship iterators along the current path are kept on the stack, and every geometry node is
+ * refined with the filter as soon as its leaf is reached, so matches are produced one at a time and the
+ * traversal stops as soon as the consumer stops pulling (e.g. a LIMIT in Cypher).
+ * Subtrees and entries the filter reports as {@link SearchFilter#matchesAll(Envelope) matching entirely}
+ * are streamed without any further envelope or geometry tests.
+ * When only the number of matches is needed, {@link #count()} adds up such subtrees from the leaf degrees instead.
+ * <p>
+ * The traversal position can be saved as an opaque {@link #cursor()} holding, for every frame on the stack,
+ * the index node id and the number of its children already consumed, and resumed later from that cursor.
+ * Resuming relies on the tree not being modified in between.
+ */
+public class RangeIterator implements Iterator<Node> {
+    private final Transaction tx;
+    private final SearchFilter filter;
+    private final ProgressLoggingListener progressListener;
+    private final Deque<Frame> stack = new ArrayDeque<>();
+    private Node next;
+    private boolean countOnly = false;
+    private long countedInSubtrees = 0;
+
+    public RangeIterator(Transaction tx, List<Node> layers, SearchFilter filter, ProgressLoggingListener progressListener) {
+        this.tx = tx;
+        this.filter = filter;
+        this.progressListener = progressListener;
+        for (int i = layers.size() - 1; i >= 0; i--) {
+            stack.push(new Frame(layers.get(i), true, false));
+        }
+    }
+
+    /**
+     * Resumes a traversal from a cursor returned by {@link #cursor()}.
+     */
+    public RangeIterator(Transaction tx, String cursor, SearchFilter filter, ProgressLoggingListener progressListener) {
+        this.tx = tx;
+        this.filter = filter;
+        this.progressListener = progressListener;
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            for (String encodedFrame : decoded.split(FRAME_SEPARATOR)) {
+                String[] fields = encodedFrame.split(FIELD_SEPARATOR);
+                Frame frame = new Frame(tx.getNodeByElementId(fields[0]), LAYER_FRAME.equals(fields[1]), Boolean.parseBoolean(fields[3]));
+                frame.skip(Integer.parseInt(fields[2]));
+                stack.push(frame);
+            }
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor, e);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            next = advance();
+        }
+        return next != null;
+    }
+
+    @Override
+    public Node next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Node result = next;
+        next = null;
+        return result;
+    }
+
+    /**
+     * Consumes the remaining matches and returns their number.
+     * Directories matching entirely are not descended geometry by geometry; their size is taken from the
+     * reference degrees of their leaves, so neither envelopes nor geometries below them are decoded.
+     */
+    public long count() {
+        countOnly = true;
+        long count = 0;
+        while (hasNext()) {
+            next();
+            count++;
+        }
+        return count + countedInSubtrees;
+    }
+
+    /**
+     * The position right after the last returned match, or null when the traversal is complete.
+     */
+    public String cursor() {
+        if (next != null) {
+            throw new IllegalStateException("Cursor requested while a match is pending");
+        }
+        if (stack.isEmpty()) {
+            return null;
+        }
+        StringJoiner joiner = new StringJoiner(FRAME_SEPARATOR);
+        for (Iterator<Frame> frames = stack.descendingIterator(); frames.hasNext(); ) {
+            Frame frame = frames.next();
+            joiner.add(String.join(FIELD_SEPARATOR, frame.owner.getElementId(), frame.isLayer ? LAYER_FRAME : INDEX_FRAME,
+                    String.valueOf(frame.offset), String.valueOf(frame.matchesAll)));
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(joiner.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Node advance() {
+        while (!stack.isEmpty()) {
+            Frame frame = stack.peek();
+            if (!frame.children.hasNext()) {
+                stack.pop();
+                continue;
+            }
+            Relationship rel = frame.nextChild();
+            boolean matchesAll = frame.matchesAll;
+            if (!matchesAll) {
+                Envelope envelope = QueryUtils.getRelationEnvelope(rel);
+                if (!filter.needsToVisit(envelope)) {
+                    continue;
+                }
+                matchesAll = filter.matchesAll(envelope);
+            }
+            if (QueryUtils.isDirectoryRelationship(rel)) {
+                progressListener.updateVisitedIndexCount(1);
+                if (countOnly && matchesAll) {
+                    countedInSubtrees += countGeometries(rel.getEndNode());
+                    continue;
+                }
+                stack.push(new Frame(rel.getEndNode(), false, matchesAll));
+            } else {
+                progressListener.updateCandidateGeometryCount(1);
+                Node geomNode = rel.getEndNode();
+                if (matchesAll || filter.geometryMatches(tx, geomNode)) {
+                    return geomNode;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static long countGeometries(Node indexNode) {
+        long count = indexNode.getDegree(RTreeRelationshipTypes.RTREE_REFERENCE, Direction.OUTGOING);
+        for (Relationship rel : indexNode.getRelationships(Direction.OUTGOING, RTreeRelationshipTypes.RTREE_CHILD)) {
+            count += countGeometries(rel.getEndNode());
+        }
+        return count;
+    }
+
+    private static final String FRAME_SEPARATOR = ";";
+    private static final String FIELD_SEPARATOR = ",";
+    private static final String LAYER_FRAME = "L";
+    private static final String INDEX_FRAME = "I";
+
+    private static class Frame {
+        final Node owner;
+        final boolean isLayer;
+        final Iterator<Relationship> children;
+        final boolean matchesAll;
+        int offset = 0;
+
+        Frame(Node owner, boolean isLayer, boolean matchesAll) {
+            this.owner = owner;
+            this.isLayer = isLayer;
+            this.children = isLayer
+                    ? owner.getRelationships(Direction.OUTGOING, RTreeRelationshipTypes.RTREE_ROOT).iterator()
+                    : owner.getRelationships(Direction.OUTGOING, RTreeRelationshipTypes.RTREE_CHILD, RTreeRelationshipTypes.RTREE_REFERENCE).iterator();
+            this.matchesAll = matchesAll;
+        }
+
+        Relationship nextChild() {
+            offset++;
+            return children.next();
+        }
+
+        void skip(int count) {
+            while (offset < count && children.hasNext()) {
+                nextChild();
+            }
+        }
+    }
+}
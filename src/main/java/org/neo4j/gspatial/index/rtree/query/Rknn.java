@@ -0,0 +1,177 @@
+package org.neo4j.gspatial.index.rtree.query;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.gspatial.index.rtree.Envelope;
+import org.neo4j.gspatial.index.rtree.ProgressLoggingListener;
+import org.neo4j.gspatial.index.rtree.query.IndexEntryCache.Child;
+import org.neo4j.gspatial.utils.RtreeUtility.KnnOutput;
+
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Bichromatic reverse kNN: the users (second layer) that would have the query among their k nearest facilities
+ * (first layer), i.e. with fewer than k facilities strictly closer to them than the query.
+ * Following TPL, the facilities nearest to the query are fetched first and each one splits the plane along its
+ * bisector with the query. A user index entry lying entirely on the facility side of k or more bisectors holds no
+ * result and is pruned without being expanded; since half-planes are convex, checking the corners of its envelope
+ * is enough. Surviving users are verified with a kNN search of the facilities bounded by their distance to the query,
+ * which stops as soon as k closer facilities are seen.
+ * Users are taken as points, the centroid of other geometries, and the distance reported is the one to the query.
+ * When the query is a facility node itself, it is not counted as its own competitor.
+ */
+public class Rknn {
+    private static final int MIN_PRUNING_FACILITIES = 16;
+    private static final int MAX_PRUNING_FACILITIES = 256;
+    private static final int CACHED_INDEX_NODES = 4096;
+    private static final int CACHED_GEOMETRIES = 16384;
+
+    private final List<Node> facilityLayers;
+    private final Node userLayer;
+    private final Geometry queryGeometry;
+    private final Coordinate query;
+    private final String queryId;
+    private final int k;
+    private final IndexEntryCache users = new IndexEntryCache();
+    private final IndexEntryCache facilities = new IndexEntryCache(CACHED_INDEX_NODES, CACHED_GEOMETRIES);
+    private final ProgressLoggingListener progressListener;
+    private double[] bisectorX;
+    private double[] bisectorY;
+
+    public Rknn(Transaction tx, List<Node> layers, List<Object> args, ProgressLoggingListener progressListener) {
+        if (layers.size() != 2) {
+            throw new IllegalArgumentException("Reverse kNN requires a facility layer and a user layer");
+        }
+        if (args.size() < 2 || args.get(1) == null || ((Number) args.get(1)).longValue() <= 0) {
+            throw new IllegalArgumentException("k must be positive");
+        }
+        this.facilityLayers = List.of(layers.get(0));
+        this.userLayer = layers.get(1);
+        this.queryGeometry = Knn.decodeQueryPoint(args.get(0));
+        this.query = queryGeometry.getCentroid().getCoordinate();
+        this.queryId = args.get(0) instanceof Node ? ((Node) args.get(0)).getElementId() : null;
+        this.k = (int) Math.min(((Number) args.get(1)).longValue(), Knn.UNBOUNDED);
+        this.progressListener = progressListener;
+    }
+
+    public Stream<KnnOutput> query() {
+        progressListener.worked(1, "Start searching index");
+        collectBisectors();
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(new UserIterator(), Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Keeps a representative point of the facilities nearest to the query. Any point of a facility is at least as
+     * far from a user as the facility itself, so its bisector is a valid pruning half-plane for any geometry type.
+     */
+    private void collectBisectors() {
+        int pruningFacilities = (int) Math.max(MIN_PRUNING_FACILITIES, Math.min((long) k * 8, MAX_PRUNING_FACILITIES));
+        List<Coordinate> points = new ArrayList<>(pruningFacilities);
+        new Knn(facilityLayers, queryGeometry, pruningFacilities + 1, Double.POSITIVE_INFINITY, false, facilities, null, progressListener)
+                .query()
+                .filter(neighbour -> !isQuery(neighbour.node))
+                .limit(pruningFacilities)
+                .forEach(neighbour -> points.add(facilities.geometry(neighbour.node).getCoordinate()));
+        bisectorX = points.stream().mapToDouble(point -> point.x).toArray();
+        bisectorY = points.stream().mapToDouble(point -> point.y).toArray();
+    }
+
+    private boolean isQuery(Node facility) {
+        return facility.getElementId().equals(queryId);
+    }
+
+    /**
+     * Whether every point of the envelope is strictly closer to at least k pruning facilities than to the query.
+     */
+    private boolean isPruned(Envelope envelope) {
+        if (bisectorX.length < k) {
+            return false;
+        }
+        double[] cornersX = {envelope.getMinX(), envelope.getMinX(), envelope.getMaxX(), envelope.getMaxX()};
+        double[] cornersY = {envelope.getMinY(), envelope.getMaxY(), envelope.getMinY(), envelope.getMaxY()};
+        int closer = 0;
+        for (int f = 0; f < bisectorX.length && closer < k; f++) {
+            boolean allCorners = true;
+            for (int c = 0; c < 4 && allCorners; c++) {
+                allCorners = squaredDistance(cornersX[c], cornersY[c], bisectorX[f], bisectorY[f])
+                        < squaredDistance(cornersX[c], cornersY[c], query.x, query.y);
+            }
+            if (allCorners) {
+                closer++;
+            }
+        }
+        return closer >= k;
+    }
+
+    private static double squaredDistance(double x1, double y1, double x2, double y2) {
+        return (x1 - x2) * (x1 - x2) + (y1 - y2) * (y1 - y2);
+    }
+
+    /**
+     * Whether fewer than k facilities are strictly closer to the user than the query.
+     */
+    private boolean hasQueryAmongNearest(Geometry user, double queryDistance) {
+        Iterator<KnnOutput> closer = new Knn(facilityLayers, user, Knn.UNBOUNDED, queryDistance, false, facilities, null, progressListener)
+                .query().iterator();
+        int count = 0;
+        while (closer.hasNext() && count < k) {
+            KnnOutput facility = closer.next();
+            if (facility.distance < queryDistance && !isQuery(facility.node)) {
+                count++;
+            }
+        }
+        return count < k;
+    }
+
+    private class UserIterator implements Iterator<KnnOutput> {
+        private final Deque<Child> stack = new ArrayDeque<>();
+        private KnnOutput next;
+
+        UserIterator() {
+            users.roots(userLayer).forEach(stack::push);
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null) {
+                next = advance();
+            }
+            return next != null;
+        }
+
+        @Override
+        public KnnOutput next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            KnnOutput result = next;
+            next = null;
+            return result;
+        }
+
+        private KnnOutput advance() {
+            while (!stack.isEmpty()) {
+                Child child = stack.pop();
+                if (isPruned(child.envelope)) {
+                    continue;
+                }
+                if (child.isDirectory) {
+                    progressListener.updateVisitedIndexCount(1);
+                    users.children(child.node).forEach(stack::push);
+                    continue;
+                }
+                progressListener.updateCandidateGeometryCount(1);
+                Geometry user = users.geometry(child.node).getCentroid();
+                double queryDistance = user.getCoordinate().distance(query);
+                if (hasQueryAmongNearest(user, queryDistance)) {
+                    return new KnnOutput(child.node, queryDistance);
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package org.neo4j.gspatial.procedures;
 
+import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Transaction;
 import org.neo4j.gspatial.functions.*;
@@ -11,6 +12,7 @@ import org.neo4j.logging.Level;
 import org.neo4j.logging.Log;
 import org.neo4j.procedure.*;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.function.Supplier;
 import java.util.stream.Stream;
@@ -22,6 +24,8 @@ public class SpatialProcedures {
     public Log log;
     @Context
     public Transaction tx;
+    @Context
+    public GraphDatabaseService db;
 
     @Procedure(value = "gspatial.setConfig")
     @Description("Set the spatial configuration")
@@ -76,11 +80,51 @@ public class SpatialProcedures {
                                                    @Name(value = "disconnect", defaultValue = "false") Boolean disconnect,
                                                    @Name(value = "cypherQuery", defaultValue = "") String cypherQuery) {
         return executeWithLogging(() -> {
-            RtreeQueryExecutor indexQueryExecutor = new RtreeQueryExecutor(log, tx, spatialSetLabels, cypherQuery, disconnect);
+            RtreeQueryExecutor indexQueryExecutor = new RtreeQueryExecutor(log, db, tx, spatialSetLabels, cypherQuery, disconnect);
             return indexQueryExecutor.executeOperation("knn", args).map(RtreeUtility.KnnOutput.class::cast);
         });
     }
 
+    @Procedure(value = "gspatial.rtree.query.knn.batch", mode = Mode.READ)
+    @Description("Query method for Knn operations of many query geometries")
+    public Stream<RtreeUtility.KnnBatchOutput> knnBatchQuery(@Name(value = "SpatialSetLabels", defaultValue = "[]") List<String> spatialSetLabels,
+                                                             @Name("queries") Object queries,
+                                                             @Name(value = "k", defaultValue = "1") Long k,
+                                                             @Name(value = "maxDistance", defaultValue = "null") Double maxDistance,
+                                                             @Name(value = "geodesic", defaultValue = "false") Boolean geodesic,
+                                                             @Name(value = "disconnect", defaultValue = "false") Boolean disconnect) {
+        return executeWithLogging(() -> {
+            RtreeQueryExecutor indexQueryExecutor = new RtreeQueryExecutor(log, db, tx, spatialSetLabels, "", disconnect);
+            return indexQueryExecutor.executeOperation("knn_batch", Arrays.asList(k, queries, maxDistance, geodesic)).map(RtreeUtility.KnnBatchOutput.class::cast);
+        });
+    }
+
+    @Procedure(value = "gspatial.rtree.query.knn.network", mode = Mode.READ)
+    @Description("Query method for Knn operations by network distance along weighted relationships")
+    public Stream<RtreeUtility.KnnOutput> knnNetworkQuery(@Name(value = "SpatialSetLabels", defaultValue = "[]") List<String> spatialSetLabels,
+                                                          @Name("query") Node query,
+                                                          @Name(value = "k", defaultValue = "1") Long k,
+                                                          @Name(value = "relationshipType", defaultValue = "ROAD") String relationshipType,
+                                                          @Name(value = "weightProperty", defaultValue = "cost") String weightProperty,
+                                                          @Name(value = "disconnect", defaultValue = "false") Boolean disconnect) {
+        return executeWithLogging(() -> {
+            RtreeQueryExecutor indexQueryExecutor = new RtreeQueryExecutor(log, tx, spatialSetLabels, "", disconnect);
+            return indexQueryExecutor.executeOperation("knn_network", Arrays.asList(query, k, relationshipType, weightProperty)).map(RtreeUtility.KnnOutput.class::cast);
+        });
+    }
+
+    @Procedure(value = "gspatial.rtree.query.rknn", mode = Mode.READ)
+    @Description("Query method for reverse Knn operations, the users having the query among their k nearest facilities")
+    public Stream<RtreeUtility.KnnOutput> rknnQuery(@Name("facilitySetLabel") String facilitySetLabel,
+                                                    @Name("userSetLabel") String userSetLabel,
+                                                    @Name(value = "args", defaultValue = "[]") List<Object> args,
+                                                    @Name(value = "disconnect", defaultValue = "false") Boolean disconnect) {
+        return executeWithLogging(() -> {
+            RtreeQueryExecutor indexQueryExecutor = new RtreeQueryExecutor(log, tx, List.of(facilitySetLabel, userSetLabel), "", disconnect);
+            return indexQueryExecutor.executeOperation("rknn", args).map(RtreeUtility.KnnOutput.class::cast);
+        });
+    }
+
     @Procedure(value = "gspatial.rtree.query.range", mode = Mode.READ)
     @Description("Query method for Range operations")
     public Stream<RtreeUtility.RangeOutput> rangeQuery(@Name(value = "SpatialSetLabels", defaultValue = "[]") List<String> spatialSetLabels,
@@ -88,11 +132,76 @@ public class SpatialProcedures {
                                                        @Name(value = "disconnect", defaultValue = "false") Boolean disconnect,
                                                        @Name(value = "cypherQuery", defaultValue = "") String cypherQuery) {
         return executeWithLogging(() -> {
-            RtreeQueryExecutor indexQueryExecutor = new RtreeQueryExecutor(log, tx, spatialSetLabels, cypherQuery, disconnect);
+            RtreeQueryExecutor indexQueryExecutor = new RtreeQueryExecutor(log, db, tx, spatialSetLabels, cypherQuery, disconnect);
             return indexQueryExecutor.executeOperation("range", args).map(RtreeUtility.RangeOutput.class::cast);
         });
     }
 
+    @Procedure(value = "gspatial.rtree.query.range.page", mode = Mode.READ)
+    @Description("Query method for paginated Range operations")
+    public Stream<RtreeUtility.PageOutput> rangePageQuery(@Name(value = "SpatialSetLabels", defaultValue = "[]") List<String> spatialSetLabels,
+                                                          @Name(value = "args", defaultValue = "[]") List<Object> args,
+                                                          @Name(value = "pageSize", defaultValue = "1000") Long pageSize,
+                                                          @Name(value = "cursor", defaultValue = "") String cursor,
+                                                          @Name(value = "disconnect", defaultValue = "false") Boolean disconnect,
+                                                          @Name(value = "cypherQuery", defaultValue = "") String cypherQuery) {
+        return executeWithLogging(() -> {
+            RtreeQueryExecutor indexQueryExecutor = new RtreeQueryExecutor(log, tx, spatialSetLabels, cypherQuery, disconnect);
+            return indexQueryExecutor.executeOperation("range_page", Arrays.asList(pageSize, cursor, args)).map(RtreeUtility.PageOutput.class::cast);
+        });
+    }
+
+    @Procedure(value = "gspatial.rtree.query.range.batch", mode = Mode.READ)
+    @Description("Query method for many Range operations sharing one index traversal")
+    public Stream<RtreeUtility.BatchRangeOutput> rangeBatchQuery(@Name(value = "SpatialSetLabels", defaultValue = "[]") List<String> spatialSetLabels,
+                                                                 @Name(value = "windows", defaultValue = "[]") List<Object> windows,
+                                                                 @Name(value = "disconnect", defaultValue = "false") Boolean disconnect,
+                                                                 @Name(value = "cypherQuery", defaultValue = "") String cypherQuery) {
+        return executeWithLogging(() -> {
+            RtreeQueryExecutor indexQueryExecutor = new RtreeQueryExecutor(log, tx, spatialSetLabels, cypherQuery, disconnect);
+            return indexQueryExecutor.executeOperation("range_batch", windows).map(RtreeUtility.BatchRangeOutput.class::cast);
+        });
+    }
+
+    @Procedure(value = "gspatial.rtree.query.range.count", mode = Mode.READ)
+    @Description("Query method counting the results of Range operations")
+    public Stream<RtreeUtility.CountOutput> rangeCountQuery(@Name(value = "SpatialSetLabels", defaultValue = "[]") List<String> spatialSetLabels,
+                                                            @Name(value = "args", defaultValue = "[]") List<Object> args,
+                                                            @Name(value = "disconnect", defaultValue = "false") Boolean disconnect,
+                                                            @Name(value = "cypherQuery", defaultValue = "") String cypherQuery) {
+        return executeWithLogging(() -> {
+            RtreeQueryExecutor indexQueryExecutor = new RtreeQueryExecutor(log, tx, spatialSetLabels, cypherQuery, disconnect);
+            return indexQueryExecutor.executeOperation("range_count", args).map(RtreeUtility.CountOutput.class::cast);
+        });
+    }
+
+    @Procedure(value = "gspatial.rtree.query.range.approximate", mode = Mode.READ)
+    @Description("Query method estimating the count and area of Range operation results by sampling")
+    public Stream<RtreeUtility.ApproximateCountOutput> rangeApproximateQuery(@Name(value = "SpatialSetLabels", defaultValue = "[]") List<String> spatialSetLabels,
+                                                                             @Name(value = "args", defaultValue = "[]") List<Object> args,
+                                                                             @Name(value = "relativeError", defaultValue = "0.05") Double relativeError,
+                                                                             @Name(value = "timeBudget", defaultValue = "1000") Long timeBudget,
+                                                                             @Name(value = "sampleSize", defaultValue = "10") Long sampleSize,
+                                                                             @Name(value = "disconnect", defaultValue = "false") Boolean disconnect) {
+        return executeWithLogging(() -> {
+            RtreeQueryExecutor indexQueryExecutor = new RtreeQueryExecutor(log, tx, spatialSetLabels, "", disconnect);
+            return indexQueryExecutor.executeOperation("range_approximate", Arrays.asList(relativeError, timeBudget, sampleSize, args))
+                    .map(RtreeUtility.ApproximateCountOutput.class::cast);
+        });
+    }
+
+    @Procedure(value = "gspatial.rtree.query.range.exists", mode = Mode.READ)
+    @Description("Query method checking whether Range operations have any result")
+    public Stream<RtreeUtility.ExistsOutput> rangeExistsQuery(@Name(value = "SpatialSetLabels", defaultValue = "[]") List<String> spatialSetLabels,
+                                                              @Name(value = "args", defaultValue = "[]") List<Object> args,
+                                                              @Name(value = "disconnect", defaultValue = "false") Boolean disconnect,
+                                                              @Name(value = "cypherQuery", defaultValue = "") String cypherQuery) {
+        return executeWithLogging(() -> {
+            RtreeQueryExecutor indexQueryExecutor = new RtreeQueryExecutor(log, tx, spatialSetLabels, cypherQuery, disconnect);
+            return indexQueryExecutor.executeOperation("range_exists", args).map(RtreeUtility.ExistsOutput.class::cast);
+        });
+    }
+
     @Procedure(value = "gspatial.rtree.query.join", mode = Mode.READ)
     @Description("Query method for Join operations")
     public Stream<RtreeUtility.JoinOutput> joinQuery(@Name(value = "SpatialSetLabels", defaultValue = "[]") List<String> spatialSetLabels,
@@ -100,11 +209,31 @@ public class SpatialProcedures {
                                                      @Name(value = "disconnect", defaultValue = "false") Boolean disconnect,
                                                      @Name(value = "cypherQuery", defaultValue = "") String cypherQuery) {
         return executeWithLogging(() -> {
-            RtreeQueryExecutor indexQueryExecutor = new RtreeQueryExecutor(log, tx, spatialSetLabels, cypherQuery, disconnect);
+            RtreeQueryExecutor indexQueryExecutor = new RtreeQueryExecutor(log, db, tx, spatialSetLabels, cypherQuery, disconnect);
             return indexQueryExecutor.executeOperation("join", args).map(RtreeUtility.JoinOutput.class::cast);
         });
     }
 
+    @Procedure(value = "gspatial.rtree.query.cache.stats", mode = Mode.READ)
+    @Description("Hit and miss statistics of the R-Tree query cache")
+    public Stream<RtreeUtility.CacheStatsOutput> queryCacheStats() {
+        return Stream.of(RtreeQueryCache.getInstance().stats());
+    }
+
+    @Procedure(value = "gspatial.rtree.query.cache.enable", mode = Mode.READ)
+    @Description("Turn the R-Tree query cache on or off; turning it off drops every entry")
+    public Stream<RtreeUtility.CacheStatsOutput> enableQueryCache(@Name(value = "enabled", defaultValue = "true") Boolean enabled) {
+        RtreeQueryCache.getInstance().setEnabled(enabled);
+        return Stream.of(RtreeQueryCache.getInstance().stats());
+    }
+
+    @Procedure(value = "gspatial.rtree.query.cache.clear", mode = Mode.READ)
+    @Description("Remove every entry of the R-Tree query cache")
+    public Stream<RtreeUtility.CacheStatsOutput> clearQueryCache() {
+        RtreeQueryCache.getInstance().clear();
+        return Stream.of(RtreeQueryCache.getInstance().stats());
+    }
+
     @Procedure(value = "gspatial.strtree", mode = Mode.READ)
     @Description("CRUD method for STR-Tree(JTS) operations")
     public Stream<IOUtility.Output> StrTree(@Name("rtree") String operationName,
@@ -0,0 +1,92 @@
+package org.neo4j.gspatial.utils;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.operation.distance.DistanceOp;
+import org.neo4j.gspatial.index.Envelope;
+
+/**
+ * Great circle distances in meters for WGS84 (SRID 4326) coordinates, x being the longitude and y the latitude.
+ * Distances use the haversine formula on the mean earth radius, which is within 0.5% of the ellipsoidal distance.
+ */
+public class GeodesicUtility {
+    public static final double EARTH_RADIUS = 6_371_008.8;
+
+    public static double haversine(double lon1, double lat1, double lon2, double lat2) {
+        double sinLat = Math.sin(Math.toRadians(lat2 - lat1) / 2);
+        double sinLon = Math.sin(Math.toRadians(lon2 - lon1) / 2);
+        double a = sinLat * sinLat + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * sinLon * sinLon;
+        return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    /**
+     * The distance between two points, or for other geometries the distance between their closest points
+     * in the longitude/latitude plane.
+     */
+    public static double distance(Geometry geom1, Geometry geom2) {
+        if (geom1 instanceof Point && geom2 instanceof Point) {
+            return haversine(((Point) geom1).getX(), ((Point) geom1).getY(), ((Point) geom2).getX(), ((Point) geom2).getY());
+        }
+        return haversine(DistanceOp.nearestPoints(geom1, geom2));
+    }
+
+    public static double haversine(Coordinate[] points) {
+        return haversine(points[0].x, points[0].y, points[1].x, points[1].y);
+    }
+
+    /**
+     * The minimum distance from a point to any point of a longitude/latitude box, a lower bound of the distance
+     * to everything inside it.
+     * Within the longitude range of the box the closest point lies straight north or south. Otherwise it lies on
+     * one of the bounding meridians, at the latitude where the meridian is closest to the point clamped to the box.
+     */
+    public static double minDistance(double lon, double lat, Envelope envelope) {
+        if (lon >= envelope.getMinX() && lon <= envelope.getMaxX()) {
+            if (lat > envelope.getMaxY()) {
+                return EARTH_RADIUS * Math.toRadians(lat - envelope.getMaxY());
+            } else if (lat < envelope.getMinY()) {
+                return EARTH_RADIUS * Math.toRadians(envelope.getMinY() - lat);
+            }
+            return 0;
+        }
+        return Math.min(distanceToMeridian(lon, lat, envelope.getMinX(), envelope.getMinY(), envelope.getMaxY()),
+                distanceToMeridian(lon, lat, envelope.getMaxX(), envelope.getMinY(), envelope.getMaxY()));
+    }
+
+    /**
+     * A lower bound of the distance between any two points of two longitude/latitude boxes.
+     * The haversine term of two points is at least the one built from the latitude and longitude gaps of the boxes,
+     * with the cosine of the highest latitude involved standing in for the product of both latitude cosines.
+     * The longitude gap is taken the short way round, i.e. across the antimeridian when the boxes together span
+     * more than half the globe, so boxes on either side of it are close.
+     */
+    public static double minDistance(Envelope envelope1, Envelope envelope2) {
+        double latGap = Math.max(0, Math.max(envelope1.getMinY() - envelope2.getMaxY(), envelope2.getMinY() - envelope1.getMaxY()));
+        double lonGap = Math.max(0, Math.max(envelope1.getMinX() - envelope2.getMaxX(), envelope2.getMinX() - envelope1.getMaxX()));
+        double lonSpan = Math.max(envelope1.getMaxX(), envelope2.getMaxX()) - Math.min(envelope1.getMinX(), envelope2.getMinX());
+        lonGap = Math.min(lonGap, Math.max(0, 360 - lonSpan));
+        if (latGap == 0 && lonGap == 0) {
+            return 0;
+        }
+        double maxLat = Math.max(Math.max(Math.abs(envelope1.getMinY()), Math.abs(envelope1.getMaxY())),
+                Math.max(Math.abs(envelope2.getMinY()), Math.abs(envelope2.getMaxY())));
+        double cosMaxLat = Math.cos(Math.toRadians(maxLat));
+        double sinLat = Math.sin(Math.toRadians(latGap) / 2);
+        double sinLon = Math.sin(Math.toRadians(lonGap) / 2);
+        double a = sinLat * sinLat + cosMaxLat * cosMaxLat * sinLon * sinLon;
+        return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    private static double distanceToMeridian(double lon, double lat, double meridian, double minLat, double maxLat) {
+        double cosDeltaLon = Math.cos(Math.toRadians(meridian - lon));
+        double closestLat;
+        if (cosDeltaLon <= 0) {
+            closestLat = lat >= 0 ? 90 : -90;
+        } else {
+            closestLat = Math.toDegrees(Math.atan(Math.tan(Math.toRadians(lat)) / cosDeltaLon));
+        }
+        closestLat = Math.max(minLat, Math.min(maxLat, closestLat));
+        return haversine(lon, lat, meridian, closestLat);
+    }
+}
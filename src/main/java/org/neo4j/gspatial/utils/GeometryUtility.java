@@ -17,30 +17,37 @@ import java.util.concurrent.ConcurrentMap;
 
 public class GeometryUtility {
 
-    private static final WKTReader WKT_READER = new WKTReader();
-    private static final WKBReader WKB_READER = new WKBReader();
+    private static final ThreadLocal<WKTReader> WKT_READER = ThreadLocal.withInitial(WKTReader::new);
+    private static final ThreadLocal<WKBReader> WKB_READER = ThreadLocal.withInitial(WKBReader::new);
     private static final GeometryFactory GEOMETRY_FACTORY = new GeometryFactory();
     private static final int srid = SpatialConstants.SRID.getIntValue();
     private static final String geometryFormat = SpatialConstants.GeometryFormat.getValue();
     private static final ConcurrentMap<String, Geometry> geometryCache = new ConcurrentHashMap<>();
 
     public static Geometry parseGeometry(String data) {
-        return geometryCache.computeIfAbsent(data, key -> {
-            try {
-                Geometry geometry = switch (geometryFormat) {
-                    case "WKB" -> {
-                        byte[] bytes = WKBReader.hexToBytes(data);
-                        yield WKB_READER.read(bytes);
-                    }
-                    case "WKT" -> WKT_READER.read(data);
-                    default -> throw new IllegalArgumentException("Unsupported geometry format: " + geometryFormat);
-                };
-                geometry.setSRID(srid);
-                return validateAndFixGeometry(geometry);
-            } catch (ParseException e) {
-                throw new IllegalArgumentException("Failed to parse " + geometryFormat + ": " + e.getMessage(), e);
-            }
-        });
+        return geometryCache.computeIfAbsent(data, GeometryUtility::readGeometry);
+    }
+
+    /**
+     * Parses and validates a geometry without going through the parse cache.
+     * Used by bulk ingestion, where every geometry is read exactly once and caching would only pin the raw strings.
+     * Safe to call from parallel streams, since every thread uses its own reader.
+     */
+    public static Geometry readGeometry(String data) {
+        try {
+            Geometry geometry = switch (geometryFormat) {
+                case "WKB" -> {
+                    byte[] bytes = WKBReader.hexToBytes(data);
+                    yield WKB_READER.get().read(bytes);
+                }
+                case "WKT" -> WKT_READER.get().read(data);
+                default -> throw new IllegalArgumentException("Unsupported geometry format: " + geometryFormat);
+            };
+            geometry.setSRID(srid);
+            return validateAndFixGeometry(geometry);
+        } catch (ParseException e) {
+            throw new IllegalArgumentException("Failed to parse " + geometryFormat + ": " + e.getMessage(), e);
+        }
     }
 
     public static Geometry parseCoordinates(double[] coordinates) {
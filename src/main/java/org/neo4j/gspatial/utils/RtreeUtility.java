@@ -6,24 +6,43 @@ import org.neo4j.graphdb.schema.ConstraintType;
 import org.neo4j.graphdb.schema.Schema;
 import org.neo4j.gspatial.constants.RtreeQueryConstants;
 import org.neo4j.gspatial.constants.SpatialConstants;
+import org.neo4j.gspatial.index.rtree.Envelope;
+import org.neo4j.gspatial.index.rtree.RTreeIndex.NodeWithEnvelope;
 import org.neo4j.gspatial.index.rtree.RTreeRelationshipTypes;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 public class RtreeUtility {
     private static final Map<Label, Boolean> uniqueIdxCache = new HashMap<>();
     private static final String uuid = SpatialConstants.UUIDNAME.getValue();
     private static final String geometry = SpatialConstants.GEOMETRYNAME.getValue();
 
-    public static List<Node> checkArgs(Transaction tx, List<Object> rawArgs) {
-        List<Node> checkedArgs = new ArrayList<>();
+    /**
+     * Validates the raw procedure arguments and, when asked to, decodes the envelope of every geometry node.
+     * Node properties are read inside the transaction first, then each geometry is parsed and validated exactly once
+     * in parallel, so the index can be built from the resulting (node, envelope) records without parsing again.
+     * Without decoding, the records carry no envelope; removals find entries by their id and never need one.
+     */
+    public static List<NodeWithEnvelope> checkArgs(Transaction tx, List<Object> rawArgs, boolean decodeEnvelopes) {
+        List<Node> checkedNodes = new ArrayList<>(rawArgs.size());
+        List<String> geometryValues = new ArrayList<>(rawArgs.size());
         for (Object arg : rawArgs) {
-            checkedArgs.add(checkArg(tx, arg));
+            Node node = checkArg(tx, arg);
+            checkedNodes.add(node);
+            geometryValues.add(getGeometryValue(node));
         }
-        return checkedArgs;
+        if (!decodeEnvelopes) {
+            return checkedNodes.stream().map(node -> new NodeWithEnvelope(node, null)).collect(Collectors.toList());
+        }
+        return IntStream.range(0, checkedNodes.size())
+                .parallel()
+                .mapToObj(i -> new NodeWithEnvelope(checkedNodes.get(i), decodeEnvelope(geometryValues.get(i))))
+                .collect(Collectors.toList());
     }
 
     public static Node checkArg(Transaction tx, Object arg) throws IllegalArgumentException {
@@ -31,7 +50,6 @@ public class RtreeUtility {
         assertPropertyExists(node, uuid);
         assertPropertyUnique(tx, node);
         assertPropertyExists(node, geometry);
-        validateGeometry(node);
         return node;
     }
 
@@ -54,12 +72,16 @@ public class RtreeUtility {
         }
     }
 
-    private static void validateGeometry(Node node) {
+    private static String getGeometryValue(Node node) {
         Object geomValue = node.getProperty(geometry);
         if (!(geomValue instanceof String)) {
             throw new IllegalArgumentException("Geometry must be a WKT string");
         }
-        GeometryUtility.parseGeometry((String) geomValue);
+        return (String) geomValue;
+    }
+
+    private static Envelope decodeEnvelope(String geomValue) {
+        return new Envelope(GeometryUtility.readGeometry(geomValue).getEnvelopeInternal());
     }
 
     private static boolean isPropertyUnique(Transaction tx, Node node) {
@@ -111,17 +133,17 @@ public class RtreeUtility {
         return metas;
     }
 
-    public static List<Node> copyNodes(Transaction tx, List<Node> nodes, String RtreeLabel) {
-        List<Node> copiedNodes = new ArrayList<>();
+    public static List<NodeWithEnvelope> copyNodes(Transaction tx, List<NodeWithEnvelope> entries, String RtreeLabel) {
+        List<NodeWithEnvelope> copiedEntries = new ArrayList<>();
         Label newLabel = Label.label(RtreeLabel);
-        for (Node node : nodes) {
+        for (NodeWithEnvelope entry : entries) {
             Node newNode = tx.createNode(newLabel);
-            for (String key : node.getPropertyKeys()) {
-                newNode.setProperty(key, node.getProperty(key));
+            for (String key : entry.node.getPropertyKeys()) {
+                newNode.setProperty(key, entry.node.getProperty(key));
             }
-            copiedNodes.add(newNode);
+            copiedEntries.add(new NodeWithEnvelope(newNode, entry.envelope));
         }
-        return copiedNodes;
+        return copiedEntries;
     }
 
     public static class Output {
@@ -140,6 +162,78 @@ public class RtreeUtility {
         }
     }
 
+    public static class CountOutput {
+        public long count;
+
+        public CountOutput(long count) {
+            this.count = count;
+        }
+    }
+
+    public static class ExistsOutput {
+        public boolean exists;
+
+        public ExistsOutput(boolean exists) {
+            this.exists = exists;
+        }
+    }
+
+    public static class BatchRangeOutput {
+        public Node node;
+        public List<Long> windows;
+
+        public BatchRangeOutput(Node node, List<Long> windows) {
+            this.node = node;
+            this.windows = windows;
+        }
+    }
+
+    public static class ApproximateCountOutput {
+        public double count;
+        public double lowerBound;
+        public double upperBound;
+        public double area;
+        public long samples;
+        public List<Node> nodes;
+
+        public ApproximateCountOutput(double count, double lowerBound, double upperBound, double area, long samples, List<Node> nodes) {
+            this.count = count;
+            this.lowerBound = lowerBound;
+            this.upperBound = upperBound;
+            this.area = area;
+            this.samples = samples;
+            this.nodes = nodes;
+        }
+    }
+
+    public static class PageOutput {
+        public List<Node> nodes;
+        public String cursor;
+
+        public PageOutput(List<Node> nodes, String cursor) {
+            this.nodes = nodes;
+            this.cursor = cursor;
+        }
+    }
+
+    public static class CacheStatsOutput {
+        public boolean enabled;
+        public long hits;
+        public long misses;
+        public long evictions;
+        public long entries;
+        public long rows;
+
+        public CacheStatsOutput(boolean enabled, long hits, long misses, long evictions, long entries, long rows) {
+            this.enabled = enabled;
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.entries = entries;
+            this.rows = rows;
+        }
+    }
+
     public static class KnnOutput {
         public Node node;
         public double distance;
@@ -158,13 +252,33 @@ public class RtreeUtility {
         }
     }
 
+    public static class KnnBatchOutput {
+        public Object query;
+        public Node neighbor;
+        public double distance;
+        public long rank;
+
+        public KnnBatchOutput(Object query, Node neighbor, double distance, long rank) {
+            this.query = query;
+            this.neighbor = neighbor;
+            this.distance = distance;
+            this.rank = rank;
+        }
+    }
+
     public static class JoinOutput {
         public Node node1;
         public Node node2;
+        public Double distance;
 
         public JoinOutput(Node node1, Node node2) {
+            this(node1, node2, null);
+        }
+
+        public JoinOutput(Node node1, Node node2, Double distance) {
             this.node1 = node1;
             this.node2 = node2;
+            this.distance = distance;
         }
     }
 }
@@ -0,0 +1,30 @@
+package org.neo4j.gspatial;
+
+import org.junit.jupiter.api.Test;
+import org.neo4j.gspatial.index.Envelope;
+import org.neo4j.gspatial.utils.GeodesicUtility;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class tests the great circle distance bounds used to prune geodesic kNN searches.
+ */
+public class GeodesicUtilityTest {
+
+    /**
+     * Boxes on either side of the antimeridian are two degrees of longitude apart, not 358,
+     * so the lower bound must not exceed the distance between their closest points.
+     */
+    @Test
+    void testMinDistanceAcrossAntimeridian() {
+        Envelope east = new Envelope(179.0, 180.0, -1.0, 1.0);
+        Envelope west = new Envelope(-180.0, -179.0, -1.0, 1.0);
+        Envelope farWest = new Envelope(-179.5, -179.0, -1.0, 1.0);
+
+        assertEquals(0.0, GeodesicUtility.minDistance(east, west), 1e-6);
+        double bound = GeodesicUtility.minDistance(east, farWest);
+        double closest = GeodesicUtility.haversine(180.0, 0.0, -179.5, 0.0);
+        assertTrue(bound > 0, "Disjoint boxes should be apart");
+        assertTrue(bound <= closest + 1e-6, bound + " exceeds the distance " + closest + " between the closest points");
+    }
+}
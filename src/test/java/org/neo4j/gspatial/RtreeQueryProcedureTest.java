@@ -0,0 +1,524 @@
+package org.neo4j.gspatial;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.neo4j.driver.Driver;
+import org.neo4j.driver.GraphDatabase;
+import org.neo4j.driver.Record;
+import org.neo4j.driver.Session;
+import org.neo4j.driver.Transaction;
+import org.neo4j.driver.exceptions.Neo4jException;
+import org.neo4j.gspatial.procedures.SpatialProcedures;
+import org.neo4j.harness.Neo4j;
+import org.neo4j.harness.Neo4jBuilders;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class tests the R-Tree query procedures on small synthetic layers whose results are known in advance.
+ */
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class RtreeQueryProcedureTest {
+
+    private Neo4j embeddedDatabaseServer;
+    private Driver driver;
+
+    /**
+     * Sets up the test environment.
+     * Initializes the Neo4j database, creates the test layers and indexes them.
+     */
+    @BeforeAll
+    void setup() {
+        this.embeddedDatabaseServer = Neo4jBuilders.newInProcessBuilder()
+                .withDisabledServer()
+                .withProcedure(SpatialProcedures.class)
+                .build();
+        this.driver = GraphDatabase.driver(embeddedDatabaseServer.boltURI());
+        createLayer("Shop", List.of(
+                Map.of("idx", 1L, "geometry", "POINT (1 1)", "open", true),
+                Map.of("idx", 2L, "geometry", "POINT (2 2)", "open", false),
+                Map.of("idx", 3L, "geometry", "POINT (3 3)", "open", true)));
+        createLayer("District", List.of(
+                Map.of("idx", 1L, "geometry", "POLYGON ((0 0, 10 0, 10 10, 0 10, 0 0))")));
+        createLayer("Tree", List.of(
+                Map.of("idx", 1L, "geometry", "POINT (5 5)"),
+                Map.of("idx", 2L, "geometry", "POINT (12 5)"),
+                Map.of("idx", 3L, "geometry", "POINT (20 20)")));
+        createLayer("Grid", gridRows());
+        createLayer("Cell", cellRows());
+    }
+
+    /**
+     * 150 points on the integer grid of [0, 14] x [0, 9], enough for an index three levels high.
+     */
+    private static List<Map<String, Object>> gridRows() {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (int x = 0; x < 15; x++) {
+            for (int y = 0; y < 10; y++) {
+                rows.add(Map.of("idx", (long) (x * 10 + y + 1), "geometry", String.format("POINT (%d %d)", x, y)));
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * 20 squares of side 3 tiling [0, 15] x [0, 12], so that many grid points lie on their shared edges.
+     */
+    private static List<Map<String, Object>> cellRows() {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            for (int j = 0; j < 4; j++) {
+                int x = 3 * i;
+                int y = 3 * j;
+                rows.add(Map.of("idx", (long) (i * 4 + j + 1), "geometry", String.format("POLYGON ((%d %d, %d %d, %d %d, %d %d, %d %d))",
+                        x, y, x + 3, y, x + 3, y + 3, x, y + 3, x, y)));
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Creates one node per row with the given label and indexes them in the R-Tree layer of that label.
+     */
+    private void createLayer(String label, List<Map<String, Object>> rows) {
+        try (Session session = driver.session()) {
+            session.run(String.format("UNWIND $rows AS row CREATE (n:%s) SET n = row", label), Map.of("rows", rows)).consume();
+            session.run(String.format("MATCH (n:%s) WITH collect(n) AS nodes CALL gspatial.rtree('insert', nodes, '%s') YIELD result RETURN result",
+                    label, label)).consume();
+        }
+    }
+
+    private List<Long> rangeIds(String layer, String args, String cypherQuery) {
+        String query = String.format("CALL gspatial.rtree.query.range(['%s'], %s, false, $cypherQuery) YIELD node RETURN node.idx AS idx ORDER BY idx",
+                layer, args);
+        try (Session session = driver.session()) {
+            return session.run(query, Map.of("cypherQuery", cypherQuery)).list().stream()
+                    .map(record -> record.get("idx").asLong())
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private String joinQuery(String labels, String args) {
+        return String.format("CALL gspatial.rtree.query.join(%s, %s) YIELD node1, node2, distance "
+                + "RETURN toString(node1.idx) + '-' + toString(node2.idx) + ':' + toString(round(coalesce(distance, 0.0), 6)) AS pair "
+                + "ORDER BY pair", labels, args);
+    }
+
+    /**
+     * The join pairs as computed by the parallel traversal, each node pair with its distance if any.
+     */
+    private List<String> joinPairs(String labels, String args) {
+        try (Session session = driver.session()) {
+            return session.run(joinQuery(labels, args)).list(record -> record.get("pair").asString());
+        }
+    }
+
+    /**
+     * The join pairs as computed serially in the caller's transaction, which a pending change forces.
+     */
+    private List<String> serialJoinPairs(String labels, String args) {
+        try (Session session = driver.session(); Transaction tx = session.beginTransaction()) {
+            tx.run("CREATE (:Scratch)").consume();
+            List<String> pairs = tx.run(joinQuery(labels, args)).list(record -> record.get("pair").asString());
+            tx.rollback();
+            return pairs;
+        }
+    }
+
+    private void assertJoinMatchesSerialJoin(String labels, String args) {
+        List<String> pairs = joinPairs(labels, args);
+        assertFalse(pairs.isEmpty(), labels + " " + args);
+        assertEquals(serialJoinPairs(labels, args), pairs, labels + " " + args);
+    }
+
+    /**
+     * Runs the query to completion and asserts that it fails with the given validation message.
+     */
+    private void assertRejected(String query, String message) {
+        try (Session session = driver.session()) {
+            Neo4jException exception = assertThrows(Neo4jException.class, () -> session.run(query).list());
+            assertTrue(exception.getMessage().contains(message), exception.getMessage());
+        }
+    }
+
+    @AfterAll
+    void tearDown() {
+        this.driver.close();
+        this.embeddedDatabaseServer.close();
+    }
+
+    /**
+     * Fragments written for the former per-node {@code WITH $node AS n <fragment>} form keep filtering the same way.
+     */
+    @Test
+    void testCypherFilterKeepsFragmentContract() {
+        assertEquals(List.of(1L, 3L), rangeIds("Shop", "[0.0, 10.0, 0.0, 10.0]", "WHERE n.open = true RETURN n"));
+        assertEquals(List.of(2L, 3L), rangeIds("Shop", "[0.0, 10.0, 0.0, 10.0]", "MATCH (n) WHERE n.idx > 1 RETURN n"));
+        assertEquals(List.of(1L, 2L, 3L), rangeIds("Shop", "[0.0, 10.0, 0.0, 10.0]", ""));
+    }
+
+    /**
+     * Invalid arguments surface as procedure failures carrying the validation message.
+     */
+    @Test
+    void testValidationMessages() {
+        assertRejected("CALL gspatial.rtree.query.knn.batch(['Shop'], [[1.0, 1.0]], 0) YIELD neighbor RETURN neighbor",
+                "k must be positive");
+        assertRejected("CALL gspatial.rtree.query.rknn('Shop', 'Shop', [[1.0, 1.0], 0]) YIELD node RETURN node",
+                "k must be positive");
+        assertRejected("CALL gspatial.rtree.query.knn(['Shop'], [[1.0, 1.0], 2, -1.0]) YIELD node RETURN node",
+                "Maximum distance must not be negative");
+        assertRejected("CALL gspatial.rtree.query.range.page(['Shop'], [0.0, 10.0, 0.0, 10.0], 0) YIELD nodes RETURN nodes",
+                "Page size must be positive");
+        assertRejected("CALL gspatial.rtree.query.range.page(['Shop'], [0.0, 10.0, 0.0, 10.0], 2, 'not a cursor') YIELD nodes RETURN nodes",
+                "Invalid cursor");
+        assertRejected("CALL gspatial.rtree.query.join(['Shop', 'Shop'], ['WITHIN_DISTANCE', -1.0]) YIELD node1 RETURN node1",
+                "WITHIN_DISTANCE requires a non-negative distance");
+        try (Session session = driver.session()) {
+            session.run("CALL gspatial.setConfig('WKT', 'idx', 'geometry', '3857')").consume();
+        }
+        try {
+            assertRejected("CALL gspatial.rtree.query.knn(['Shop'], [[1.0, 1.0], 2, null, 'GEODESIC']) YIELD node RETURN node",
+                    "Geodesic distances require SRID 4326");
+            assertRejected("MATCH (s:Shop) WITH collect(s) AS shops CALL gspatial.operation('GEODESIC_DISTANCE', [shops, shops]) YIELD result RETURN result",
+                    "Geodesic distances require SRID 4326");
+        } finally {
+            try (Session session = driver.session()) {
+                session.run("CALL gspatial.setConfig('WKT', 'idx', 'geometry', '4326')").consume();
+            }
+        }
+    }
+
+    /**
+     * Nodes inside a polygon query are at distance 0 and come before nodes outside it, whatever their distance to
+     * the boundary.
+     */
+    @Test
+    void testKnnFromPolygonReturnsContainedNodesFirst() {
+        String query = "MATCH (d:District {idx: 1}) CALL gspatial.rtree.query.knn(['Tree'], [d, 2]) YIELD node, distance "
+                + "RETURN node.idx AS idx, distance ORDER BY distance";
+        try (Session session = driver.session()) {
+            List<Record> records = session.run(query).list();
+            assertEquals(List.of(1L, 2L), records.stream().map(record -> record.get("idx").asLong()).collect(Collectors.toList()));
+            assertEquals(0.0, records.get(0).get("distance").asDouble(), 1e-9);
+            assertEquals(2.0, records.get(1).get("distance").asDouble(), 1e-9);
+        }
+    }
+
+    /**
+     * A node inside a polygon with several partners is joined at distance 0, not at its distance to the boundary.
+     */
+    @Test
+    void testWithinDistanceJoinKeepsContainedNodes() {
+        String query = "CALL gspatial.rtree.query.join(['District', 'Tree'], ['WITHIN_DISTANCE', 3.0]) YIELD node1, node2, distance "
+                + "RETURN node1.idx AS district, node2.idx AS idx, distance ORDER BY idx";
+        try (Session session = driver.session()) {
+            List<Record> records = session.run(query).list();
+            assertEquals(List.of(1L, 2L), records.stream().map(record -> record.get("idx").asLong()).collect(Collectors.toList()));
+            assertEquals(0.0, records.get(0).get("distance").asDouble(), 1e-9);
+            assertEquals(2.0, records.get(1).get("distance").asDouble(), 1e-9);
+        }
+    }
+
+    /**
+     * The parallel traversal finds the same pairs as the serial one, between indexes of the same height and of
+     * different heights, in either order.
+     */
+    @Test
+    void testParallelJoinMatchesSerialJoin() {
+        assertJoinMatchesSerialJoin("['Cell', 'Grid']", "['INTERSECTS']");
+        assertJoinMatchesSerialJoin("['Grid', 'Cell']", "['WITHIN']");
+        assertJoinMatchesSerialJoin("['District', 'Grid']", "['INTERSECTS']");
+        assertJoinMatchesSerialJoin("['Grid', 'District']", "['WITHIN']");
+        assertJoinMatchesSerialJoin("['Tree', 'Cell']", "['WITHIN']");
+        assertEquals(110, joinPairs("['Grid', 'District']", "['INTERSECTS']").size());
+    }
+
+    /**
+     * A join stopped early returns pairs of the full join, and joins nested in the rows of another join each run to
+     * completion.
+     */
+    @Test
+    void testJoinStreamsPartialAndNestedJoins() {
+        List<String> all = joinPairs("['Cell', 'Grid']", "['INTERSECTS']");
+        try (Session session = driver.session()) {
+            List<String> first = session.run("CALL gspatial.rtree.query.join(['Cell', 'Grid'], ['INTERSECTS']) YIELD node1, node2 "
+                    + "RETURN toString(node1.idx) + '-' + toString(node2.idx) + ':0.0' AS pair LIMIT 5")
+                    .list(record -> record.get("pair").asString());
+            assertEquals(5, first.size());
+            assertTrue(all.containsAll(first), first.toString());
+
+            long nested = session.run("CALL gspatial.rtree.query.join(['Tree', 'Cell'], ['INTERSECTS']) YIELD node1 AS tree "
+                    + "CALL gspatial.rtree.query.join(['Cell', 'Grid'], ['INTERSECTS']) YIELD node1, node2 "
+                    + "RETURN count(*) AS pairs").single().get("pairs").asLong();
+            assertEquals(3L * all.size(), nested);
+        }
+    }
+
+    /**
+     * The anti-join pairs every node with the nodes it does not intersect, also when the envelopes of both index
+     * roots are apart and no pair intersects.
+     */
+    @Test
+    void testDisjointJoinIsComplementOfIntersectingPairs() {
+        assertJoinMatchesSerialJoin("['Cell', 'Grid']", "['DISJOINT']");
+        int intersecting = joinPairs("['Cell', 'Grid']", "['INTERSECTS']").size();
+        assertEquals(20 * 150 - intersecting, joinPairs("['Cell', 'Grid']", "['DISJOINT']").size());
+
+        assertEquals(List.of(), joinPairs("['Shop', 'Tree']", "['INTERSECTS']"));
+        assertEquals(9, joinPairs("['Shop', 'Tree']", "['DISJOINT']").size());
+        assertEquals(9, serialJoinPairs("['Shop', 'Tree']", "['DISJOINT']").size());
+    }
+
+    /**
+     * The leaf sweep keeps candidates whose envelopes only touch or share their minimum x, e.g. a point joined with
+     * itself or a partner exactly at the join distance.
+     */
+    @Test
+    void testLeafSweepKeepsTouchingCandidates() {
+        assertEquals(150, joinPairs("['Grid', 'Grid']", "['INTERSECTS']").size());
+        assertJoinMatchesSerialJoin("['Grid', 'Grid']", "['INTERSECTS']");
+
+        List<String> pairs = joinPairs("['Tree', 'Grid']", "['WITHIN_DISTANCE', 1.0]");
+        assertEquals(10, pairs.size());
+        assertTrue(pairs.contains("1-46:1.0"), pairs.toString());
+        assertTrue(pairs.contains("2-126:0.0"), pairs.toString());
+        assertJoinMatchesSerialJoin("['Tree', 'Grid']", "['WITHIN_DISTANCE', 1.0]");
+        assertJoinMatchesSerialJoin("['Cell', 'Grid']", "['WITHIN_DISTANCE', 0.5]");
+    }
+
+    /**
+     * A range query read only in part returns nodes of the full result, and the count agrees with the full result.
+     */
+    @Test
+    void testRangeReadInPart() {
+        List<Long> all = rangeIds("Grid", "[-0.5, 4.5, -0.5, 4.5]", "");
+        assertEquals(25, all.size());
+        try (Session session = driver.session()) {
+            List<Long> first = session.run("CALL gspatial.rtree.query.range(['Grid'], [-0.5, 4.5, -0.5, 4.5]) YIELD node "
+                    + "RETURN node.idx AS idx LIMIT 3").list(record -> record.get("idx").asLong());
+            assertEquals(3, first.size());
+            assertTrue(all.containsAll(first), first.toString());
+            assertEquals(25L, session.run("CALL gspatial.rtree.query.range.count(['Grid'], [-0.5, 4.5, -0.5, 4.5]) YIELD count "
+                    + "RETURN count").single().get("count").asLong());
+        }
+    }
+
+    /**
+     * Reading a range page by page, passing each cursor back, returns every node of the range exactly once, and a
+     * cursor is only accepted with the arguments it was returned for.
+     */
+    @Test
+    void testRangePagesRoundTrip() {
+        String query = "CALL gspatial.rtree.query.range.page(['Grid'], $window, 7, $cursor) YIELD nodes, cursor "
+                + "RETURN [n IN nodes | n.idx] AS ids, cursor";
+        List<Double> window = List.of(-0.5, 9.5, -0.5, 9.5);
+        List<Long> ids = new ArrayList<>();
+        String firstCursor = null;
+        try (Session session = driver.session()) {
+            String cursor = "";
+            int pages = 0;
+            while (cursor != null) {
+                Record page = session.run(query, Map.of("window", window, "cursor", cursor)).single();
+                List<Long> pageIds = page.get("ids").asList(value -> value.asLong());
+                assertTrue(pageIds.size() <= 7, pageIds.toString());
+                ids.addAll(pageIds);
+                cursor = page.get("cursor").isNull() ? null : page.get("cursor").asString();
+                if (pages++ == 0) {
+                    firstCursor = cursor;
+                }
+            }
+            assertTrue(pages > 1);
+        }
+        assertEquals(rangeIds("Grid", "[-0.5, 9.5, -0.5, 9.5]", ""), ids.stream().sorted().collect(Collectors.toList()));
+
+        assertNotNull(firstCursor);
+        assertRejected(String.format("CALL gspatial.rtree.query.range.page(['Grid'], [-0.5, 4.5, -0.5, 4.5], 7, '%s') YIELD nodes RETURN nodes",
+                firstCursor), "Invalid cursor");
+    }
+
+    /**
+     * Every window of a batch gets the nodes a range query of that window alone returns.
+     */
+    @Test
+    void testBatchRangeMatchesSingleRanges() {
+        List<String> windows = List.of("[-0.5, 4.5, -0.5, 4.5]", "[2.5, 6.5, 2.5, 6.5]", "[0.0, 2.0, 0.0, 2.0, 'intersects']", "[20.0, 30.0, 20.0, 30.0]");
+        String query = String.format("CALL gspatial.rtree.query.range.batch(['Grid'], [%s]) YIELD node, windows "
+                + "UNWIND windows AS window RETURN window, node.idx AS idx ORDER BY window, idx", String.join(", ", windows));
+        try (Session session = driver.session()) {
+            Map<Long, List<Long>> batch = session.run(query).list().stream()
+                    .collect(Collectors.groupingBy(record -> record.get("window").asLong(),
+                            Collectors.mapping(record -> record.get("idx").asLong(), Collectors.toList())));
+            for (int i = 0; i < windows.size(); i++) {
+                assertEquals(rangeIds("Grid", windows.get(i), ""), batch.getOrDefault((long) i, List.of()), windows.get(i));
+            }
+            assertEquals(9, batch.get(2L).size());
+        }
+    }
+
+    private long cacheHits() {
+        try (Session session = driver.session()) {
+            return session.run("CALL gspatial.rtree.query.cache.stats() YIELD hits RETURN hits").single().get("hits").asLong();
+        }
+    }
+
+    /**
+     * A repeated query is answered from the cache, a filtered one never is, and an index modification makes the
+     * layer's cached results unreachable.
+     */
+    @Test
+    void testQueryCacheHitsAndInvalidation() {
+        createLayer("Kiosk", List.of(
+                Map.of("idx", 1L, "geometry", "POINT (1 1)"),
+                Map.of("idx", 2L, "geometry", "POINT (2 2)")));
+        String box = "[0.0, 10.0, 0.0, 10.0]";
+        try (Session session = driver.session()) {
+            session.run("CALL gspatial.rtree.query.cache.enable(true)").consume();
+        }
+        try {
+            long hits = cacheHits();
+            assertEquals(List.of(1L, 2L), rangeIds("Kiosk", box, ""));
+            assertEquals(List.of(1L, 2L), rangeIds("Kiosk", box, ""));
+            assertEquals(hits + 1, cacheHits());
+
+            assertEquals(List.of(2L), rangeIds("Kiosk", box, "WHERE n.idx > 1 RETURN n"));
+            assertEquals(List.of(2L), rangeIds("Kiosk", box, "WHERE n.idx > 1 RETURN n"));
+            assertEquals(hits + 1, cacheHits());
+
+            try (Session session = driver.session()) {
+                session.run("CREATE (n:Kiosk {idx: 3, geometry: 'POINT (3 3)'}) WITH collect(n) AS nodes "
+                        + "CALL gspatial.rtree('insert', nodes, 'Kiosk') YIELD result RETURN result").consume();
+            }
+            assertEquals(List.of(1L, 2L, 3L), rangeIds("Kiosk", box, ""));
+            assertEquals(hits + 1, cacheHits());
+        } finally {
+            try (Session session = driver.session()) {
+                session.run("CALL gspatial.rtree.query.cache.enable(false)").consume();
+            }
+        }
+    }
+
+    private List<Record> knn(String layer, String args) {
+        try (Session session = driver.session()) {
+            return session.run(String.format("CALL gspatial.rtree.query.knn(['%s'], %s) YIELD node, distance "
+                    + "RETURN node.idx AS idx, distance", layer, args)).list();
+        }
+    }
+
+    /**
+     * Neighbours come in increasing distance, k cuts through a tie by returning only k of the tied nodes, and a
+     * maximum distance keeps every node exactly at that distance.
+     */
+    @Test
+    void testKnnOrderAndTies() {
+        List<Long> ties = List.of(46L, 55L, 57L, 66L);
+        List<Record> nearest = knn("Grid", "[[5.0, 5.0], 3]");
+        assertEquals(3, nearest.size());
+        assertEquals(56L, nearest.get(0).get("idx").asLong());
+        assertEquals(0.0, nearest.get(0).get("distance").asDouble(), 1e-9);
+        for (Record record : nearest.subList(1, 3)) {
+            assertTrue(ties.contains(record.get("idx").asLong()), record.toString());
+            assertEquals(1.0, record.get("distance").asDouble(), 1e-9);
+        }
+
+        List<Record> withinRadius = knn("Grid", "[[5.0, 5.0], null, 1.0]");
+        assertEquals(List.of(46L, 55L, 56L, 57L, 66L), withinRadius.stream()
+                .map(record -> record.get("idx").asLong()).sorted().collect(Collectors.toList()));
+
+        try (Session session = driver.session()) {
+            List<Double> distances = session.run("CALL gspatial.rtree.query.knn(['Grid'], [[5.2, 4.9]]) YIELD distance "
+                    + "RETURN distance LIMIT 20").list(record -> record.get("distance").asDouble());
+            assertEquals(20, distances.size());
+            for (int i = 1; i < distances.size(); i++) {
+                assertTrue(distances.get(i - 1) <= distances.get(i), distances.toString());
+            }
+        }
+    }
+
+    /**
+     * Every query of a batch gets the neighbours, distances and ranks a kNN query of that point alone returns,
+     * whether the queries are given as points or as a label.
+     */
+    @Test
+    void testBatchKnnMatchesSingleKnn() {
+        List<List<Double>> points = List.of(List.of(5.2, 4.9), List.of(0.3, 0.1), List.of(13.6, 8.7));
+        try (Session session = driver.session()) {
+            List<Record> batch = session.run("CALL gspatial.rtree.query.knn.batch(['Grid'], $points, 3) YIELD query, neighbor, distance, rank "
+                    + "RETURN query, neighbor.idx AS idx, distance, rank ORDER BY rank", Map.of("points", points)).list();
+            assertEquals(9, batch.size());
+            for (List<Double> point : points) {
+                List<Record> rows = batch.stream()
+                        .filter(record -> record.get("query").asList(value -> value.asDouble()).equals(point))
+                        .collect(Collectors.toList());
+                List<Record> single = knn("Grid", String.format("[[%s, %s], 3]", point.get(0), point.get(1)));
+                assertEquals(single.stream().map(record -> record.get("idx").asLong()).collect(Collectors.toList()),
+                        rows.stream().map(record -> record.get("idx").asLong()).collect(Collectors.toList()), point.toString());
+                for (int i = 0; i < rows.size(); i++) {
+                    assertEquals(i + 1, rows.get(i).get("rank").asLong());
+                    assertEquals(single.get(i).get("distance").asDouble(), rows.get(i).get("distance").asDouble(), 1e-9);
+                }
+            }
+
+            List<Record> byLabel = session.run("CALL gspatial.rtree.query.knn.batch(['Grid'], 'Tree') YIELD query, neighbor "
+                    + "RETURN query.idx AS tree, neighbor.idx AS idx ORDER BY tree").list();
+            List<Long> expected = session.run("MATCH (t:Tree) CALL gspatial.rtree.query.knn(['Grid'], [t, 1]) YIELD node "
+                    + "RETURN t.idx AS tree, node.idx AS idx ORDER BY tree").list(record -> record.get("idx").asLong());
+            assertEquals(expected, byLabel.stream().map(record -> record.get("idx").asLong()).collect(Collectors.toList()));
+            assertEquals(List.of(56L, 126L, 150L), expected);
+        }
+    }
+
+    /**
+     * Reverse kNN returns the users that would count the query among their k nearest facilities, and a query that is
+     * a facility itself is not counted against itself.
+     */
+    @Test
+    void testRknnFindsUsersOfTheQuery() {
+        String query = "CALL gspatial.rtree.query.rknn('Tree', 'Shop', %s) YIELD node, distance "
+                + "RETURN node.idx AS idx, distance ORDER BY idx";
+        try (Session session = driver.session()) {
+            List<Record> nearest = session.run(String.format(query, "[[0.0, 0.0], 1]")).list();
+            assertEquals(List.of(1L, 2L), nearest.stream().map(record -> record.get("idx").asLong()).collect(Collectors.toList()));
+            assertEquals(Math.sqrt(2), nearest.get(0).get("distance").asDouble(), 1e-9);
+            assertEquals(Math.sqrt(8), nearest.get(1).get("distance").asDouble(), 1e-9);
+
+            assertEquals(List.of(1L, 2L, 3L), session.run(String.format(query, "[[0.0, 0.0], 2]")).list(record -> record.get("idx").asLong()));
+            assertEquals(List.of(1L, 2L, 3L), session.run("MATCH (t:Tree {idx: 1}) "
+                    + String.format(query, "[t, 1]")).list(record -> record.get("idx").asLong()));
+        }
+    }
+
+    /**
+     * Network kNN ranks facilities by the cost of the cheapest path, not by straight-line distance, and never returns
+     * a facility the query cannot reach.
+     */
+    @Test
+    void testNetworkKnnRanksByPathCost() {
+        createLayer("Depot", List.of(
+                Map.of("idx", 1L, "geometry", "POINT (1 0)"),
+                Map.of("idx", 2L, "geometry", "POINT (0 3)"),
+                Map.of("idx", 3L, "geometry", "POINT (4 0)"),
+                Map.of("idx", 4L, "geometry", "POINT (0.5 0.5)")));
+        try (Session session = driver.session()) {
+            session.run("CREATE (j:Junction {idx: 1, geometry: 'POINT (0 0)'}) WITH j "
+                    + "MATCH (d1:Depot {idx: 1}), (d2:Depot {idx: 2}), (d3:Depot {idx: 3}) "
+                    + "CREATE (j)-[:ROAD {cost: 5.0}]->(d1), (d2)-[:ROAD {cost: 3.0}]->(j), (d1)-[:ROAD {cost: 3.0}]->(d3)").consume();
+            List<Record> nearest = session.run("MATCH (j:Junction {idx: 1}) "
+                    + "CALL gspatial.rtree.query.knn.network(['Depot'], j, 3, 'ROAD', 'cost') YIELD node, distance "
+                    + "RETURN node.idx AS idx, distance").list();
+            assertEquals(List.of(2L, 1L, 3L), nearest.stream().map(record -> record.get("idx").asLong()).collect(Collectors.toList()));
+            assertEquals(List.of(3.0, 5.0, 8.0), nearest.stream().map(record -> record.get("distance").asDouble()).collect(Collectors.toList()));
+
+            assertEquals(List.of(2L, 1L, 3L), session.run("MATCH (j:Junction {idx: 1}) "
+                    + "CALL gspatial.rtree.query.knn.network(['Depot'], j, 10) YIELD node RETURN node.idx AS idx")
+                    .list(record -> record.get("idx").asLong()));
+        }
+    }
+}